@@ -0,0 +1,63 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.SocketAddress;
+
+/**
+ * 带真实远端地址的 EmbeddedChannel，用于在不启动服务端的情况下跑完整的检测流程。
+ */
+public final class BenchmarkChannel extends EmbeddedChannel {
+    private final SocketAddress remoteAddress;
+
+    public BenchmarkChannel(SocketAddress remoteAddress, ChannelHandler... handlers) {
+        super(false, false);
+        this.remoteAddress = remoteAddress;
+        pipeline().addLast(handlers);
+        try {
+            register();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected SocketAddress remoteAddress0() {
+        return remoteAddress;
+    }
+
+    /**
+     * 新建一条连接，按分段写入首包，返回流经检测器后到达下游的字节数。
+     */
+    public static int drive(SocketAddress remoteAddress, ChannelHandler handler, byte[]... segments) {
+        BenchmarkChannel channel = handler == null
+            ? new BenchmarkChannel(remoteAddress)
+            : new BenchmarkChannel(remoteAddress, handler);
+        return forward(channel, segments);
+    }
+
+    /**
+     * 与 {@link #drive} 相同，但检测器之后接服务端原生的 HAProxyMessageDecoder，返回到达下游的字节数与 HAProxyMessage 个数之和。
+     */
+    public static int driveDecoded(SocketAddress remoteAddress, ChannelHandler handler, byte[]... segments) {
+        return forward(new BenchmarkChannel(remoteAddress, handler, new HAProxyMessageDecoder()), segments);
+    }
+
+    private static int forward(BenchmarkChannel channel, byte[]... segments) {
+        for (byte[] segment : segments) {
+            channel.writeInbound(channel.alloc().buffer(segment.length).writeBytes(segment));
+        }
+
+        int forwarded = 0;
+        for (Object msg; (msg = channel.readInbound()) != null; ) {
+            forwarded += msg instanceof ByteBuf data ? data.readableBytes() : 1;
+            ReferenceCountUtil.release(msg);
+        }
+        channel.finishAndReleaseAll();
+        return forwarded;
+    }
+}
@@ -0,0 +1,134 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试共用的首包样本与配置。
+ */
+public final class BenchmarkPackets {
+    public static final InetSocketAddress FRPS_V4 = socket("198.51.100.7", 41000);
+    public static final InetSocketAddress PLAYER_V4 = socket("203.0.113.45", 51234);
+    public static final InetSocketAddress PLAYER_V6 = socket("2001:db8:85a3::8a2e:370:7334", 51234);
+    public static final InetSocketAddress UNLISTED_V4 = socket("192.0.2.99", 41000);
+
+    private BenchmarkPackets() {
+    }
+
+    public static byte[] handshake() {
+        ByteBuf body = Unpooled.buffer();
+        body.writeByte(0x00);
+        writeVarInt(body, 769);
+        byte[] host = "mc.example.com".getBytes(StandardCharsets.UTF_8);
+        writeVarInt(body, host.length);
+        body.writeBytes(host);
+        body.writeShort(25565);
+        writeVarInt(body, 2);
+
+        ByteBuf packet = Unpooled.buffer();
+        writeVarInt(packet, body.readableBytes());
+        packet.writeBytes(body);
+        byte[] loginStart = {0x10, 0x00, 0x08, 'P', 'l', 'a', 'y', 'e', 'r', '4', '2',
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        packet.writeBytes(loginStart);
+        return ByteBufUtil.getBytes(packet);
+    }
+
+    public static byte[] proxyV1(InetSocketAddress client) {
+        String family = client.getAddress() instanceof java.net.Inet4Address ? "TCP4" : "TCP6";
+        String line = "PROXY " + family + " " + client.getAddress().getHostAddress() + " "
+            + (family.equals("TCP4") ? "10.0.0.1" : "::1") + " " + client.getPort() + " 25565\r\n";
+        return concat(line.getBytes(StandardCharsets.US_ASCII), handshake());
+    }
+
+    public static byte[] proxyV2(InetSocketAddress client) {
+        byte[] address = client.getAddress().getAddress();
+        boolean ipv6 = address.length == 16;
+        ByteBuf header = Unpooled.buffer();
+        header.writeBytes(ProxyProtocol.V2_SIG);
+        header.writeByte(0x21);
+        header.writeByte(ipv6 ? 0x21 : 0x11);
+        header.writeShort(ipv6 ? 36 : 12);
+        header.writeBytes(address);
+        header.writeBytes(new byte[address.length]);
+        header.writeShort(client.getPort());
+        header.writeShort(25565);
+        return concat(ByteBufUtil.getBytes(header), handshake());
+    }
+
+    /**
+     * 创建只含给定白名单的运行时，拦截日志直接丢弃。
+     */
+    public static DetectorRuntime runtime(List<String> whitelist) throws Exception {
+        return runtime(settings(whitelist));
+    }
+
+    public static DetectorRuntime runtime(DetectorSettings settings) throws Exception {
+        DetectorRuntime runtime = new DetectorRuntime("HAProxyDetectorBenchmark", Path.of(System.getProperty("java.io.tmpdir")),
+            WhitelistResolver.HostResolver.SYSTEM, line -> {
+            });
+        runtime.apply(settings).get();
+        return runtime;
+    }
+
+    /**
+     * EmbeddedChannel 每个连接各有一个事件循环，首包超时的定时任务不会触发，基准测试中关闭首包超时。
+     */
+    public static DetectorSettings settings(List<String> whitelist) {
+        return DetectorSettings.from(Map.of("whitelist", whitelist, "auto-reload", false, "first-packet-timeout", 0));
+    }
+
+    /**
+     * 生成 size 条随机 CIDR，IPv4 与 IPv6 各占一半，frps 所在网段总是包含在内。
+     */
+    public static List<String> whitelist(int size, long seed) {
+        Random random = new Random(seed);
+        List<String> entries = new ArrayList<>(size);
+        entries.add("198.51.100.0/24");
+        while (entries.size() < size) {
+            if (random.nextBoolean()) {
+                int prefix = 16 + random.nextInt(17);
+                entries.add((random.nextInt(223) + 1) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "/" + prefix);
+            } else {
+                int prefix = 32 + random.nextInt(97);
+                entries.add(String.format("2001:%x:%x:%x::%x/%d", random.nextInt(0x10000), random.nextInt(0x10000),
+                    random.nextInt(0x10000), random.nextInt(0x10000), prefix));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    private static InetSocketAddress socket(String host, int port) {
+        try {
+            return new InetSocketAddress(InetAddress.getByName(host), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
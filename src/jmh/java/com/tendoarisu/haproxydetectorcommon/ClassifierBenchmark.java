@@ -0,0 +1,62 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassifierBenchmark {
+
+    @Param({"HANDSHAKE", "PROXY_V1_V4", "PROXY_V1_V6", "PROXY_V2_V4", "PROXY_V2_V6", "TLS_CLIENT_HELLO", "HTTP_GET"})
+    public String packet;
+
+    private ByteBuf buf;
+    private final ProxyAddress address = new ProxyAddress();
+
+    @Setup
+    public void setup() {
+        byte[] bytes = switch (packet) {
+            case "PROXY_V1_V4" -> BenchmarkPackets.proxyV1(BenchmarkPackets.PLAYER_V4);
+            case "PROXY_V1_V6" -> BenchmarkPackets.proxyV1(BenchmarkPackets.PLAYER_V6);
+            case "PROXY_V2_V4" -> BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V4);
+            case "PROXY_V2_V6" -> BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V6);
+            case "TLS_CLIENT_HELLO" -> new byte[]{0x16, 0x03, 0x01, 0x00, (byte) 0xC8, 0x01, 0x00, 0x00, (byte) 0xC4, 0x03, 0x03};
+            case "HTTP_GET" -> "GET / HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+            default -> BenchmarkPackets.handshake();
+        };
+        buf = Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+    }
+
+    @Benchmark
+    public FirstPacketType classify() {
+        return FirstPacketClassifier.classify(buf);
+    }
+
+    @Benchmark
+    public ProxyHeaderInfo decodeV2() {
+        return ProxyHeaderInfo.decodeV2(buf);
+    }
+
+    @Benchmark
+    public long parseAddress() {
+        return address.parse(buf) ? address.sourceLow() : 0;
+    }
+}
@@ -0,0 +1,67 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SyntheticHeaderBenchmark {
+
+    @Param({"v4", "v6"})
+    public String family;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private InetSocketAddress address;
+    private byte[] handshake;
+
+    @Setup
+    public void setup() {
+        address = family.equals("v6") ? BenchmarkPackets.PLAYER_V6 : BenchmarkPackets.PLAYER_V4;
+        handshake = BenchmarkPackets.handshake();
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuf header = SyntheticProxyHeader.encode(alloc, address);
+        int length = header.readableBytes();
+        header.release();
+        return length;
+    }
+
+    @Benchmark
+    public int prependContiguous() {
+        return prepend(true);
+    }
+
+    @Benchmark
+    public int prependComposite() {
+        return prepend(false);
+    }
+
+    private int prepend(boolean contiguous) {
+        ByteBuf payload = alloc.buffer(handshake.length).writeBytes(handshake);
+        ByteBuf combined = SyntheticProxyHeader.prepend(alloc, address, payload, contiguous);
+        int length = combined.readableBytes();
+        combined.release();
+        return length;
+    }
+}
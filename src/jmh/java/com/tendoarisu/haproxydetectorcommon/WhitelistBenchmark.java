@@ -0,0 +1,62 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WhitelistBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int entries;
+
+    private CidrTrie whitelist;
+    private InetAddress hitV4;
+    private InetAddress missV4;
+    private InetAddress missV6;
+
+    @Setup
+    public void setup() {
+        List<String> cidrs = BenchmarkPackets.whitelist(entries, 42);
+        CidrTrie.Builder builder = CidrTrie.builder();
+        for (String cidr : cidrs) {
+            builder.add(cidr);
+        }
+        whitelist = builder.build();
+        hitV4 = BenchmarkPackets.FRPS_V4.getAddress();
+        missV4 = BenchmarkPackets.UNLISTED_V4.getAddress();
+        missV6 = BenchmarkPackets.PLAYER_V6.getAddress();
+    }
+
+    @Benchmark
+    public boolean hitV4() {
+        return whitelist.contains(hitV4);
+    }
+
+    @Benchmark
+    public boolean missV4() {
+        return whitelist.contains(missV4);
+    }
+
+    @Benchmark
+    public boolean missV6() {
+        return whitelist.contains(missV6);
+    }
+}
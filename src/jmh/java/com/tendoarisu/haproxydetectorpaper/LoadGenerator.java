@@ -0,0 +1,500 @@
+package com.tendoarisu.haproxydetectorpaper;
+
+import com.tendoarisu.haproxydetectorcommon.BenchmarkPackets;
+import com.tendoarisu.haproxydetectorcommon.DetectorRuntime;
+import com.tendoarisu.haproxydetectorcommon.DetectorSettings;
+import com.tendoarisu.haproxydetectorcommon.FirstPacketClassifier;
+import com.tendoarisu.haproxydetectorcommon.FirstPacketType;
+import com.tendoarisu.haproxydetectorcommon.WhitelistResolver;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 离线混合流量压测：在回环地址上启动挂着真实检测 handler 的 Netty 服务端，后面接一个模拟原生 PROXY 解码器和握手接收端，
+ * 再按配置的比例并发发起连接，输出吞吐、判定耗时分位数、堆与直接内存占用以及错误计数。
+ * 白名单为 127.0.0.0/24，非白名单的 PROXY 连接从 127.0.1.x 发出，因此需要整个 127.0.0.0/8 都可用的系统（Linux）。
+ * <p>
+ * 参数：--connections=N --concurrency=N --duration=秒（大于 0 时按时长持续压测，忽略 connections）
+ * --mix=v1:1,v2v4:2,v2v6:1,direct:4,geyser:1,fragmented:1,unlisted:1 --threads=N --source-ips=N --timeout=秒
+ */
+public final class LoadGenerator {
+
+    private enum Kind {
+        V1("v1", false),
+        V2_V4("v2v4", false),
+        V2_V6("v2v6", false),
+        DIRECT("direct", false),
+        GEYSER("geyser", false),
+        FRAGMENTED("fragmented", false),
+        UNLISTED("unlisted", true);
+
+        private final String label;
+        private final boolean expectBlocked;
+
+        Kind(String label, boolean expectBlocked) {
+            this.label = label;
+            this.expectBlocked = expectBlocked;
+        }
+
+        static Kind of(String label) {
+            for (Kind kind : values()) {
+                if (kind.label.equals(label)) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("未知的连接类型: " + label);
+        }
+    }
+
+    private static final byte[] GEYSER_LIKE = {0x7F, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01};
+    private static final long FRAGMENT_DELAY_MILLIS = 2;
+
+    private final int connections;
+    private final int concurrency;
+    private final long durationSeconds;
+    private final int threads;
+    private final int sourceIps;
+    private final long timeoutSeconds;
+    private final Kind[] schedule;
+    private final Map<Kind, byte[]> payloads = new LinkedHashMap<>();
+
+    private final Map<Kind, LongAdder> passed = new ConcurrentHashMap<>();
+    private final Map<Kind, LongAdder> blocked = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final AtomicInteger launched = new AtomicInteger();
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final long[] latencies;
+    private final AtomicInteger latencyCount = new AtomicInteger();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final AtomicLong peakDirect = new AtomicLong();
+
+    private Bootstrap client;
+    private InetSocketAddress serverAddress;
+    private long deadlineNanos;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "20000"));
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1000"));
+        this.durationSeconds = Long.parseLong(options.getOrDefault("duration", "0"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads",
+            String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors() / 2))));
+        this.sourceIps = Math.max(1, Math.min(250, Integer.parseInt(options.getOrDefault("source-ips", "16"))));
+        this.timeoutSeconds = Long.parseLong(options.getOrDefault("timeout", "10"));
+        this.schedule = parseMix(options.getOrDefault("mix", "v1:1,v2v4:2,v2v6:1,direct:4,geyser:1,fragmented:1,unlisted:1"));
+        this.latencies = new long[durationSeconds > 0 ? 1 << 20 : connections];
+
+        payloads.put(Kind.V1, BenchmarkPackets.proxyV1(BenchmarkPackets.PLAYER_V4));
+        payloads.put(Kind.V2_V4, BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V4));
+        payloads.put(Kind.V2_V6, BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V6));
+        payloads.put(Kind.DIRECT, BenchmarkPackets.handshake());
+        payloads.put(Kind.GEYSER, GEYSER_LIKE);
+        payloads.put(Kind.FRAGMENTED, BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V4));
+        payloads.put(Kind.UNLISTED, BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V4));
+        for (Kind kind : Kind.values()) {
+            passed.put(kind, new LongAdder());
+            blocked.put(kind, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private static Kind[] parseMix(String mix) {
+        List<Kind> kinds = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                kinds.add(Kind.of(pair[0].trim()));
+            }
+        }
+        if (kinds.isEmpty()) {
+            throw new IllegalArgumentException("mix 不能为空");
+        }
+        return kinds.toArray(new Kind[0]);
+    }
+
+    private void run() throws Exception {
+        DetectorRuntime runtime = new DetectorRuntime("HAProxyDetectorLoad", Files.createTempDirectory("haproxydetector-load"),
+            WhitelistResolver.HostResolver.SYSTEM, line -> {
+            });
+        runtime.apply(DetectorSettings.from(Map.of("whitelist", List.of("127.0.0.0/24"), "auto-reload", false))).get();
+        HAProxyHandler detector = new HAProxyHandler(runtime);
+
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup serverGroup = new NioEventLoopGroup(threads);
+        EventLoopGroup clientGroup = new NioEventLoopGroup(threads);
+        try {
+            Channel server = new ServerBootstrap()
+                .group(bossGroup, serverGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 4096)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        if (!runtime.allowConnection(channel.remoteAddress())) {
+                            channel.close();
+                            return;
+                        }
+                        channel.pipeline().addLast(detector, new StubProxyDecoder(), new HandshakeSink());
+                    }
+                })
+                .bind(InetAddress.getLoopbackAddress(), 0).sync().channel();
+            serverAddress = (InetSocketAddress) server.localAddress();
+
+            client = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_LINGER, 0)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+
+            System.out.printf(Locale.ROOT, "压测开始: %s, 并发 %d, 事件循环 %d+%d, 类型比例 %s%n",
+                durationSeconds > 0 ? durationSeconds + " 秒" : connections + " 个连接",
+                concurrency, threads, threads, describeMix());
+            long start = System.nanoTime();
+            deadlineNanos = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+            var sampler = runtime.scheduler().scheduleAtFixedRate(() -> sample(start), 1, 1, TimeUnit.SECONDS);
+            for (int i = 0; i < concurrency; i++) {
+                launchNext();
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            sampler.cancel(false);
+            sampleMemory();
+            report(elapsed, runtime);
+            server.close().sync();
+        } finally {
+            clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            runtime.shutdown();
+        }
+    }
+
+    private void launchNext() {
+        if (!stopped.get()) {
+            int index = launched.getAndIncrement();
+            boolean finished = durationSeconds > 0 ? System.nanoTime() - deadlineNanos >= 0 : index >= connections;
+            if (!finished) {
+                inflight.incrementAndGet();
+                connect(index);
+                return;
+            }
+            stopped.set(true);
+        }
+        if (inflight.get() == 0) {
+            done.countDown();
+        }
+    }
+
+    private void finish() {
+        completed.increment();
+        launchNext();
+        if (inflight.decrementAndGet() == 0 && stopped.get()) {
+            done.countDown();
+        }
+    }
+
+    private void connect(int index) {
+        Kind kind = schedule[index % schedule.length];
+        int host = 1 + (index / schedule.length) % sourceIps;
+        InetSocketAddress source = new InetSocketAddress(kind.expectBlocked ? "127.0.1." + host : "127.0.0." + host, 0);
+        ClientHandler handler = new ClientHandler(kind);
+        ChannelFuture future = client.clone().handler(handler).connect(serverAddress, source);
+        future.addListener(result -> {
+            if (!result.isSuccess()) {
+                error("connect: " + result.cause().getClass().getSimpleName());
+                finish();
+            }
+        });
+    }
+
+    private void error(String reason) {
+        errors.computeIfAbsent(reason, ignored -> new LongAdder()).increment();
+    }
+
+    private void recordLatency(long nanos) {
+        int index = latencyCount.getAndIncrement();
+        if (index < latencies.length) {
+            latencies[index] = nanos;
+        }
+    }
+
+    private void sample(long start) {
+        sampleMemory();
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+        if (seconds > 0 && seconds % 5 == 0) {
+            System.out.printf(Locale.ROOT, "  %3ds 已完成 %,d，进行中 %,d，堆 %s，直接内存 %s%n", seconds, completed.sum(),
+                inflight.get(), formatBytes(heapUsed()), formatBytes(directUsed()));
+        }
+    }
+
+    private void sampleMemory() {
+        peakHeap.accumulateAndGet(heapUsed(), Math::max);
+        peakDirect.accumulateAndGet(directUsed(), Math::max);
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directUsed() {
+        long pooled = PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory();
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return Math.max(pooled, pool.getMemoryUsed());
+            }
+        }
+        return pooled;
+    }
+
+    private void report(long elapsedNanos, DetectorRuntime runtime) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        long total = completed.sum();
+        System.out.printf(Locale.ROOT, "完成 %,d 个连接，用时 %.2f 秒，吞吐 %,.0f 连接/秒%n", total, seconds, total / seconds);
+        for (Kind kind : Kind.values()) {
+            long ok = passed.get(kind).sum();
+            long closed = blocked.get(kind).sum();
+            if (ok + closed > 0) {
+                System.out.printf(Locale.ROOT, "  %-10s 放行 %,d，被关闭 %,d%n", kind.label, ok, closed);
+            }
+        }
+
+        int count = Math.min(latencyCount.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        if (count > 0) {
+            System.out.printf(Locale.ROOT, "判定耗时（accept 到握手送达，%,d 个样本）: p50 %s, p99 %s, p999 %s, 最大 %s%n", count,
+                formatNanos(percentile(sorted, 0.5)), formatNanos(percentile(sorted, 0.99)),
+                formatNanos(percentile(sorted, 0.999)), formatNanos(sorted[count - 1]));
+        }
+        System.out.printf(Locale.ROOT, "堆内存: 峰值 %s，结束时 %s；直接内存: 峰值 %s，结束时 %s%n", formatBytes(peakHeap.get()),
+            formatBytes(heapUsed()), formatBytes(peakDirect.get()), formatBytes(directUsed()));
+
+        if (errors.isEmpty()) {
+            System.out.println("错误: 0");
+        } else {
+            System.out.println("错误:");
+            errors.forEach((reason, adder) -> System.out.printf(Locale.ROOT, "  %s: %,d%n", reason, adder.sum()));
+        }
+        runtime.metrics().snapshot().describe().forEach(System.out::println);
+    }
+
+    private String describeMix() {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (Kind kind : schedule) {
+            weights.merge(kind.label, 1, Integer::sum);
+        }
+        return weights.toString();
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000.0);
+        }
+        return String.format(Locale.ROOT, "%.1fµs", nanos / 1_000.0);
+    }
+
+    private static String formatBytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * 客户端：建连后写出首包（fragmented 分三段、间隔几毫秒写出），收到服务端的 1 字节回应即视为放行，
+     * 没有回应就被关闭视为拦截。
+     */
+    private final class ClientHandler extends ChannelInboundHandlerAdapter {
+        private final Kind kind;
+        private boolean answered;
+        private boolean finished;
+
+        private ClientHandler(Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            byte[] payload = payloads.get(kind);
+            if (kind == Kind.FRAGMENTED) {
+                ctx.writeAndFlush(Unpooled.wrappedBuffer(payload, 0, 5));
+                ctx.executor().schedule(() -> {
+                    ctx.writeAndFlush(Unpooled.wrappedBuffer(payload, 5, 7));
+                }, FRAGMENT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                ctx.executor().schedule(() -> {
+                    ctx.writeAndFlush(Unpooled.wrappedBuffer(payload, 12, payload.length - 12));
+                }, FRAGMENT_DELAY_MILLIS * 2, TimeUnit.MILLISECONDS);
+            } else {
+                ctx.writeAndFlush(Unpooled.wrappedBuffer(payload));
+            }
+            ctx.executor().schedule(() -> {
+                if (!answered && ctx.channel().isOpen()) {
+                    error("timeout: " + kind.label);
+                    complete(ctx);
+                }
+            }, timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            if (answered) {
+                return;
+            }
+            answered = true;
+            if (kind.expectBlocked) {
+                error("unexpected pass: " + kind.label);
+            } else {
+                passed.get(kind).increment();
+            }
+            complete(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (!finished) {
+                if (kind.expectBlocked) {
+                    blocked.get(kind).increment();
+                } else {
+                    error("unexpected close: " + kind.label);
+                }
+                complete(ctx);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!finished) {
+                if (kind.expectBlocked) {
+                    blocked.get(kind).increment();
+                } else {
+                    error("client: " + cause.getClass().getSimpleName());
+                }
+                complete(ctx);
+            }
+        }
+
+        private void complete(ChannelHandlerContext ctx) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            ctx.close();
+            finish();
+        }
+    }
+
+    /**
+     * 模拟服务端原生的 PROXY 解码器：跳过 v1 / v2 头（包括直连时检测 handler 伪造的 v2 头），其余数据原样交给下一个 handler。
+     */
+    private static final class StubProxyDecoder extends ByteToMessageDecoder {
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            FirstPacketType type = FirstPacketClassifier.classify(in);
+            if (type == FirstPacketType.INCOMPLETE) {
+                return;
+            }
+            if (type == FirstPacketType.PROXY_V1) {
+                int end = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+                if (end < 0) {
+                    return;
+                }
+                in.readerIndex(end + 1);
+            } else if (type == FirstPacketType.PROXY_V2) {
+                if (in.readableBytes() < 16) {
+                    return;
+                }
+                int length = 16 + in.getUnsignedShort(in.readerIndex() + 14);
+                if (in.readableBytes() < length) {
+                    return;
+                }
+                in.skipBytes(length);
+            }
+            ctx.pipeline().remove(this);
+        }
+    }
+
+    /**
+     * 握手接收端：记录从 handler 安装（即 accept）到第一段数据送达的耗时，并回应 1 个字节。
+     * 客户端收到回应后以 RST 关闭连接（避免回环上堆积 TIME_WAIT），服务端因此出现的 IOException 不计入错误。
+     */
+    private final class HandshakeSink extends ChannelInboundHandlerAdapter {
+        private long acceptNanos;
+        private boolean received;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            acceptNanos = System.nanoTime();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            if (received) {
+                return;
+            }
+            received = true;
+            recordLatency(System.nanoTime() - acceptNanos);
+            ctx.writeAndFlush(ctx.alloc().buffer(1).writeByte(1));
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!(cause instanceof IOException)) {
+                error("server: " + cause.getClass().getSimpleName());
+            }
+            ctx.close();
+        }
+    }
+}
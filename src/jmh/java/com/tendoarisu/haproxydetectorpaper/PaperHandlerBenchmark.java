@@ -0,0 +1,122 @@
+package com.tendoarisu.haproxydetectorpaper;
+
+import com.tendoarisu.haproxydetectorcommon.BenchmarkChannel;
+import com.tendoarisu.haproxydetectorcommon.BenchmarkPackets;
+import com.tendoarisu.haproxydetectorcommon.DetectorRuntime;
+import com.tendoarisu.haproxydetectorcommon.DetectorSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paper 检测器的首包处理开销：各类首包走完整条 pipeline 的耗时（地址解析单独见 ClassifierBenchmark#parseAddress）。
+ * 与插件中一样，所有连接共用同一个 handler 实例。baseline 是不挂检测器时同样建连、写入、读出的开销，其余结果减去它即为检测器本身的成本。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaperHandlerBenchmark {
+    private DetectorRuntime runtime;
+    private HAProxyHandler handler;
+    private DetectorRuntime messageRuntime;
+    private HAProxyHandler messageHandler;
+
+    private byte[] handshake;
+    private byte[] proxyV1;
+    private byte[] proxyV2;
+    private byte[] proxyV2Head;
+    private byte[] proxyV2Tail;
+
+    @Setup
+    public void setup() throws Exception {
+        runtime = BenchmarkPackets.runtime(List.of("198.51.100.0/24"));
+        handler = new HAProxyHandler(runtime);
+        messageRuntime = BenchmarkPackets.runtime(DetectorSettings.from(Map.of("whitelist", List.of("198.51.100.0/24"),
+            "auto-reload", false, "first-packet-timeout", 0, "direct-proxy-message", true)));
+        messageHandler = new HAProxyHandler(messageRuntime);
+
+        handshake = BenchmarkPackets.handshake();
+        proxyV1 = BenchmarkPackets.proxyV1(BenchmarkPackets.PLAYER_V4);
+        proxyV2 = BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V4);
+        proxyV2Head = Arrays.copyOfRange(proxyV2, 0, 7);
+        proxyV2Tail = Arrays.copyOfRange(proxyV2, 7, proxyV2.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        runtime.shutdown();
+        messageRuntime.shutdown();
+    }
+
+    @Benchmark
+    public int baseline() {
+        return BenchmarkChannel.drive(BenchmarkPackets.PLAYER_V4, null, handshake);
+    }
+
+    @Benchmark
+    public int directV4() {
+        return BenchmarkChannel.drive(BenchmarkPackets.PLAYER_V4, handler, handshake);
+    }
+
+    /**
+     * 每个连接新建一个 handler 的旧做法，与 directV4 对比即为共享 handler 省下的分配。
+     */
+    @Benchmark
+    public int directV4PerConnectionHandler() {
+        return BenchmarkChannel.drive(BenchmarkPackets.PLAYER_V4, new HAProxyHandler(runtime), handshake);
+    }
+
+    /**
+     * 直连首包经伪造头交给原生 HAProxyMessageDecoder 解析，与 directV4Message 对比即为 direct-proxy-message 省下的编码与解析。
+     */
+    @Benchmark
+    public int directV4Decoded() {
+        return BenchmarkChannel.driveDecoded(BenchmarkPackets.PLAYER_V4, handler, handshake);
+    }
+
+    @Benchmark
+    public int directV4Message() {
+        return BenchmarkChannel.driveDecoded(BenchmarkPackets.PLAYER_V4, messageHandler, handshake);
+    }
+
+    @Benchmark
+    public int directV6() {
+        return BenchmarkChannel.drive(BenchmarkPackets.PLAYER_V6, handler, handshake);
+    }
+
+    @Benchmark
+    public int proxyV1() {
+        return BenchmarkChannel.drive(BenchmarkPackets.FRPS_V4, handler, proxyV1);
+    }
+
+    @Benchmark
+    public int proxyV2() {
+        return BenchmarkChannel.drive(BenchmarkPackets.FRPS_V4, handler, proxyV2);
+    }
+
+    @Benchmark
+    public int proxyV2Fragmented() {
+        return BenchmarkChannel.drive(BenchmarkPackets.FRPS_V4, handler, proxyV2Head, proxyV2Tail);
+    }
+
+    @Benchmark
+    public int blocked() {
+        return BenchmarkChannel.drive(BenchmarkPackets.UNLISTED_V4, handler, proxyV2);
+    }
+}
@@ -0,0 +1,103 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 拦截日志的合并输出。事件循环线程只把拦截事件放进有界的无锁队列，后台按周期取出，
+ * 相同 (frps, client) 的重复拦截合并成一行汇总；队列满时直接丢弃并计数，不会阻塞 I/O 线程。
+ */
+public final class BlockLog {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final Consumer<String> sink;
+    private final int capacity;
+    private final Queue<BlockEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private ScheduledFuture<?> drainTask;
+    private volatile long intervalSeconds;
+
+    public BlockLog(Consumer<String> sink, int capacity) {
+        this.sink = sink;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 记录一次拦截。client 为 PROXY 头中解析出的地址，只拷贝打包后的源地址，文本到汇总输出时才生成；传入后调用方可以继续复用该实例。
+     */
+    public void record(InetAddress frps, ProxyAddress client) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(new BlockEvent(frps, client.family(), client.sourceHigh(), client.sourceLow()));
+    }
+
+    /**
+     * 按 intervalSeconds 周期在调度线程上输出汇总，间隔未变化时不重新调度。
+     */
+    public synchronized void schedule(ScheduledExecutorService scheduler, long intervalSeconds) {
+        long interval = Math.max(1, intervalSeconds);
+        if (drainTask != null) {
+            if (this.intervalSeconds == interval) {
+                return;
+            }
+            drainTask.cancel(false);
+        }
+        this.intervalSeconds = interval;
+        drainTask = scheduler.scheduleWithFixedDelay(this::drain, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (drainTask != null) {
+            drainTask.cancel(false);
+            drainTask = null;
+        }
+        drain();
+    }
+
+    private void drain() {
+        Map<BlockEvent, long[]> counts = new LinkedHashMap<>();
+        BlockEvent event;
+        while ((event = queue.poll()) != null) {
+            size.decrementAndGet();
+            counts.computeIfAbsent(event, ignored -> new long[1])[0]++;
+        }
+
+        for (Map.Entry<BlockEvent, long[]> entry : counts.entrySet()) {
+            BlockEvent key = entry.getKey();
+            long count = entry.getValue()[0];
+            String line = "拦截非白名单 frps 连接: frps=" + key.frpsIp() + ", client=" + key.clientIp();
+            if (count > 1) {
+                line += String.format("（%d 秒内共 %,d 次）", intervalSeconds, count);
+            }
+            sink.accept(line);
+        }
+
+        long droppedCount = dropped.sumThenReset();
+        if (droppedCount > 0) {
+            sink.accept(String.format("拦截日志过多，已丢弃 %,d 条记录。", droppedCount));
+        }
+    }
+
+    private record BlockEvent(InetAddress frps, int clientFamily, long clientHigh, long clientLow) {
+        String frpsIp() {
+            return frps == null ? "unknown" : frps.getHostAddress();
+        }
+
+        String clientIp() {
+            return ProxyAddress.format(clientFamily, clientHigh, clientLow);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.UnaryOperator;
+
+/**
+ * 把检测器的安装放到子连接自己的事件循环上。每个监听只操作一次：读取 ServerBootstrapAcceptor 的构造参数，
+ * 用包装后的 childHandler 重新构造一个 acceptor，并在监听的事件循环上替换 pipeline 中原来的 acceptor。
+ * 接收线程照常只把 childHandler 加进子连接并注册，没有任何额外的每连接工作；包装的 {@link ChannelInitializer}
+ * 在子连接的事件循环上先做准入检查，拒绝时以 closeForcibly 关闭、不安装任何 handler，放行时再交给服务端原有的
+ * childHandler 完成初始化，最后加入检测 handler。只读取 acceptor 的字段，不写入 final 字段。
+ * 构造参数无法识别时退回到在监听 pipeline 上注入：准入检查留在接收线程上，检测器仍在子连接注册后安装。
+ */
+public final class ChildHandlerHook {
+    private static final String ACCEPTOR_CLASS_SUFFIX = "ServerBootstrap$ServerBootstrapAcceptor";
+
+    /**
+     * 子连接的准入检查与检测器安装。
+     */
+    public interface ChildInitializer {
+        /**
+         * 在服务端 childHandler 之前调用。返回 false 时由钩子以 closeForcibly 关闭连接，不会经过服务端的初始化。
+         */
+        boolean admit(Channel child);
+
+        /**
+         * 在子连接的事件循环上、服务端 childHandler 完成初始化之后调用。
+         */
+        void initChild(Channel child);
+    }
+
+    private final Channel serverChannel;
+    private final String name;
+    private final String originalName;
+
+    private ChildHandlerHook(Channel serverChannel, String name, String originalName) {
+        this.serverChannel = serverChannel;
+        this.name = name;
+        this.originalName = originalName;
+    }
+
+    /**
+     * 以 name 在监听 channel 上安装钩子，优先替换 acceptor，否则在监听 pipeline 最前面注入。该名称已存在时返回 null。
+     */
+    public static ChildHandlerHook install(Channel serverChannel, String name, ChildInitializer initializer) throws Exception {
+        return onEventLoop(serverChannel, () -> {
+            ChannelPipeline pipeline = serverChannel.pipeline();
+            if (pipeline.get(name) != null) {
+                return null;
+            }
+
+            for (Map.Entry<String, ChannelHandler> entry : pipeline) {
+                ChannelHandler acceptor = entry.getValue();
+                if (!acceptor.getClass().getName().endsWith(ACCEPTOR_CLASS_SUFFIX)) {
+                    continue;
+                }
+                ChannelHandler rebuilt = rebuildAcceptor(serverChannel, acceptor, original ->
+                    original instanceof Wrapper ? null : new Wrapper(original, initializer));
+                if (rebuilt != null) {
+                    pipeline.replace(acceptor, name, rebuilt);
+                    return new ChildHandlerHook(serverChannel, name, entry.getKey());
+                }
+                break;
+            }
+
+            pipeline.addFirst(name, new Interceptor(initializer));
+            return new ChildHandlerHook(serverChannel, name, null);
+        });
+    }
+
+    /**
+     * 以原来的 childHandler 再构造一个 acceptor 换回去（acceptor 不是 @Sharable，原实例不能重新加入），或移除监听 pipeline 上的拦截 handler。
+     * 已经接收、尚未初始化的子连接仍会调用一次 {@link ChildInitializer}，由实现判断插件是否仍在运行。
+     */
+    public void uninstall() {
+        if (!serverChannel.isOpen()) {
+            return;
+        }
+        try {
+            onEventLoop(serverChannel, () -> {
+                ChannelPipeline pipeline = serverChannel.pipeline();
+                ChannelHandler current = pipeline.get(name);
+                if (current == null) {
+                    return null;
+                }
+                if (originalName == null) {
+                    pipeline.remove(name);
+                    return null;
+                }
+                // 重建失败时保留包装后的 acceptor，由 ChildInitializer 在插件停止后直接放行
+                ChannelHandler restored = rebuildAcceptor(serverChannel, current, wrapper ->
+                    wrapper instanceof Wrapper unwrapped ? unwrapped.original : null);
+                if (restored != null) {
+                    pipeline.replace(name, originalName, restored);
+                }
+                return null;
+            });
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 按构造参数的类型从 acceptor 的实例字段中依次取值（同类型的按声明顺序对应），监听 channel 取当前值，childHandler 经 childHandler 函数替换。
+     * 不同 Netty 版本的参数个数不同（例如 4.1.9x 起多了 ChannelInitializerExtension 集合），任一参数对应不上或函数返回 null 时返回 null。
+     */
+    private static ChannelHandler rebuildAcceptor(Channel serverChannel, ChannelHandler acceptor,
+                                                  UnaryOperator<ChannelHandler> childHandler) {
+        try {
+            Class<?> type = acceptor.getClass();
+            Constructor<?>[] constructors = type.getDeclaredConstructors();
+            if (constructors.length != 1) {
+                return null;
+            }
+
+            List<Field> fields = new ArrayList<>();
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fields.add(field);
+                }
+            }
+
+            Constructor<?> constructor = constructors[0];
+            Class<?>[] parameters = constructor.getParameterTypes();
+            Object[] arguments = new Object[parameters.length];
+            boolean wrapped = false;
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i] == Channel.class) {
+                    arguments[i] = serverChannel;
+                    continue;
+                }
+
+                Field source = null;
+                for (Field field : fields) {
+                    if (field.getType() == parameters[i]) {
+                        source = field;
+                        break;
+                    }
+                }
+                if (source == null) {
+                    return null;
+                }
+                fields.remove(source);
+                source.setAccessible(true);
+                Object value = source.get(acceptor);
+                if (parameters[i] == ChannelHandler.class) {
+                    value = value == null ? null : childHandler.apply((ChannelHandler) value);
+                    if (value == null) {
+                        return null;
+                    }
+                    wrapped = true;
+                }
+                arguments[i] = value;
+            }
+            if (!wrapped) {
+                return null;
+            }
+
+            constructor.setAccessible(true);
+            return (ChannelHandler) constructor.newInstance(arguments);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static <T> T onEventLoop(Channel channel, Callable<T> task) throws Exception {
+        if (channel.eventLoop().inEventLoop()) {
+            return task.call();
+        }
+        return channel.eventLoop().submit(task).get();
+    }
+
+    /**
+     * 替换服务端 childHandler 的初始化器。继承 ChannelInitializer，其它插件按 initChannel 再包装一层时也能正常调用。
+     */
+    @ChannelHandler.Sharable
+    private static final class Wrapper extends ChannelInitializer<Channel> {
+        private final ChannelHandler original;
+        private final ChildInitializer initializer;
+
+        private Wrapper(ChannelHandler original, ChildInitializer initializer) {
+            this.original = original;
+            this.initializer = initializer;
+        }
+
+        @Override
+        protected void initChannel(Channel child) {
+            if (!initializer.admit(child)) {
+                child.unsafe().closeForcibly();
+                return;
+            }
+            child.pipeline().addLast(original);
+            initializer.initChild(child);
+        }
+    }
+
+    /**
+     * 找不到可重建的 acceptor 时使用：在接收线程上做准入检查，放行的子连接挂一个一次性的注册钩子，在服务端初始化之后安装检测器。
+     */
+    @ChannelHandler.Sharable
+    private static final class Interceptor extends ChannelInboundHandlerAdapter {
+        private final ChildInitializer initializer;
+        private final RegistrationHook registrationHook;
+
+        private Interceptor(ChildInitializer initializer) {
+            this.initializer = initializer;
+            this.registrationHook = new RegistrationHook(initializer);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof Channel child) {
+                if (!initializer.admit(child)) {
+                    child.unsafe().closeForcibly();
+                    return;
+                }
+                child.pipeline().addFirst(registrationHook);
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class RegistrationHook extends ChannelInboundHandlerAdapter {
+        private final ChildInitializer initializer;
+
+        private RegistrationHook(ChildInitializer initializer) {
+            this.initializer = initializer;
+        }
+
+        @Override
+        public void channelRegistered(ChannelHandlerContext ctx) {
+            try {
+                initializer.initChild(ctx.channel());
+            } catch (Throwable e) {
+                ctx.close();
+                throw e;
+            } finally {
+                if (!ctx.isRemoved()) {
+                    ctx.pipeline().remove(this);
+                }
+            }
+            ctx.fireChannelRegistered();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.util.NetUtil;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * 不可变的二叉前缀树，按 IPv4 / IPv6 原始比特位存放白名单网段。
+ * 配置加载时编译一次，连接时只做一次最长前缀查找，不再解析字符串。
+ */
+public final class CidrTrie {
+    private static final CidrTrie EMPTY = new Builder().build();
+    private static final boolean INET4_HASH_IS_ADDRESS = checkInet4HashCode();
+
+    private final int[] v4Children;
+    private final byte[] v4Prefix;
+    private final int[] v6Children;
+    private final byte[] v6Prefix;
+    private final int size;
+
+    private CidrTrie(int[] v4Children, byte[] v4Prefix, int[] v6Children, byte[] v6Prefix, int size) {
+        this.v4Children = v4Children;
+        this.v4Prefix = v4Prefix;
+        this.v6Children = v6Children;
+        this.v6Prefix = v6Prefix;
+        this.size = size;
+    }
+
+    public static CidrTrie empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(InetAddress address) {
+        return longestPrefix(address) >= 0;
+    }
+
+    public int longestPrefix(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return longestPrefixV4(ipv4ToInt(address));
+        }
+        if (address instanceof Inet6Address) {
+            byte[] bytes = address.getAddress();
+            return longestPrefixV6(readLong(bytes, 0), readLong(bytes, 8));
+        }
+        return -1;
+    }
+
+    public boolean containsV4(int address) {
+        return longestPrefixV4(address) >= 0;
+    }
+
+    public boolean containsV6(long high, long low) {
+        return longestPrefixV6(high, low) >= 0;
+    }
+
+    public int longestPrefixV4(int address) {
+        int[] children = v4Children;
+        byte[] prefix = v4Prefix;
+        int node = 0;
+        int best = (prefix[0] & 0xFF) - 1;
+        for (int bit = 31; bit >= 0; bit--) {
+            node = children[(node << 1) | ((address >>> bit) & 1)];
+            if (node == 0) {
+                return best;
+            }
+            if (prefix[node] != 0) {
+                best = (prefix[node] & 0xFF) - 1;
+            }
+        }
+        return best;
+    }
+
+    public int longestPrefixV6(long high, long low) {
+        int[] children = v6Children;
+        byte[] prefix = v6Prefix;
+        int node = 0;
+        int best = (prefix[0] & 0xFF) - 1;
+        for (int i = 0; i < 128; i++) {
+            long word = i < 64 ? high : low;
+            int bit = (int) ((word >>> (63 - (i & 63))) & 1L);
+            node = children[(node << 1) | bit];
+            if (node == 0) {
+                return best;
+            }
+            if (prefix[node] != 0) {
+                best = (prefix[node] & 0xFF) - 1;
+            }
+        }
+        return best;
+    }
+
+    public static int ipv4ToInt(InetAddress address) {
+        if (INET4_HASH_IS_ADDRESS) {
+            return address.hashCode();
+        }
+        byte[] bytes = address.getAddress();
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+
+    private static boolean checkInet4HashCode() {
+        try {
+            InetAddress probe = InetAddress.getByAddress(new byte[]{(byte) 203, 0, 113, 7});
+            return probe.hashCode() == 0xCB007107;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public static final class Builder {
+        private final Family v4 = new Family();
+        private final Family v6 = new Family();
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * 添加一个 IP 或 CIDR 字面量，无法解析时返回 false，不会触发 DNS 查询。
+         */
+        public boolean add(String entry) {
+            if (entry == null) {
+                return false;
+            }
+
+            String normalized = entry.trim();
+            int slash = normalized.indexOf('/');
+            String network = slash == -1 ? normalized : normalized.substring(0, slash);
+            byte[] bytes = NetUtil.createByteArrayFromIpAddressString(network);
+            if (bytes == null) {
+                return false;
+            }
+
+            int prefix = bytes.length * 8;
+            if (slash != -1) {
+                try {
+                    prefix = Integer.parseInt(normalized.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return add(bytes, prefix);
+        }
+
+        public boolean add(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            return add(bytes, bytes.length * 8);
+        }
+
+        public boolean add(byte[] address, int prefix) {
+            Family family;
+            if (address.length == 4) {
+                family = v4;
+            } else if (address.length == 16) {
+                family = v6;
+            } else {
+                return false;
+            }
+
+            if (prefix < 0 || prefix > address.length * 8) {
+                return false;
+            }
+
+            if (family.insert(address, prefix)) {
+                size++;
+            }
+            return true;
+        }
+
+        public CidrTrie build() {
+            return new CidrTrie(
+                Arrays.copyOf(v4.children, v4.nodeCount * 2),
+                Arrays.copyOf(v4.prefix, v4.nodeCount),
+                Arrays.copyOf(v6.children, v6.nodeCount * 2),
+                Arrays.copyOf(v6.prefix, v6.nodeCount),
+                size
+            );
+        }
+    }
+
+    private static final class Family {
+        private int[] children = new int[64];
+        private byte[] prefix = new byte[32];
+        private int nodeCount = 1;
+
+        private boolean insert(byte[] address, int prefixLength) {
+            int node = 0;
+            for (int i = 0; i < prefixLength; i++) {
+                int bit = (address[i >>> 3] >>> (7 - (i & 7))) & 1;
+                int slot = (node << 1) | bit;
+                int child = children[slot];
+                if (child == 0) {
+                    child = allocateNode();
+                    children[slot] = child;
+                }
+                node = child;
+            }
+
+            if (prefix[node] != 0) {
+                return false;
+            }
+            prefix[node] = (byte) (prefixLength + 1);
+            return true;
+        }
+
+        private int allocateNode() {
+            if (nodeCount == prefix.length) {
+                prefix = Arrays.copyOf(prefix, nodeCount * 2);
+                children = Arrays.copyOf(children, nodeCount * 4);
+            }
+            return nodeCount++;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按 PROXY 头中真实客户端地址限制同时在线的连接数。frps 转发来的玩家在 socket 层都是 frps 的地址，
+ * 只有头里的源地址才能区分；地址在 I/O 线程上用线程内复用的 {@link ProxyAddress} 按字节解析，不生成 String 或 InetAddress。
+ * 每个客户端一个 AtomicInteger，CAS 递增，连接关闭时递减；计数归零的条目标记为失效后移除，
+ * 正在递增的线程看到失效标记会重新取条目，因此不需要加锁，也不会因为条目被移除而漏计。
+ * IPv4 按单个地址计数，IPv6 按配置的前缀合并；不带源地址的头（LOCAL 命令、UNKNOWN、UNIX 地址）共用一个名额池，
+ * 同样受上限约束，不会因为无法区分客户端而绕过计数。条目只在有连接存活时存在，不需要后台清理。
+ */
+public final class ClientConnectionLimiter {
+    private static final long V4_MAPPED_HIGH_BITS = 0xFFFF_0000_0000L;
+    private static final int RETIRED = -1;
+    /**
+     * IPv4 键总带有映射前缀，IPv6 的全零地址不会作为真实源地址出现，因此全零键可以留给没有源地址的头。
+     */
+    private static final ClientKey NO_ADDRESS = new ClientKey(0, 0);
+    private static final FastThreadLocal<ProxyAddress> ADDRESS = new FastThreadLocal<>() {
+        @Override
+        protected ProxyAddress initialValue() {
+            return new ProxyAddress();
+        }
+    };
+
+    private final int maxConnections;
+    private final int ipv6Prefix;
+    private final ConcurrentHashMap<ClientKey, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+    public ClientConnectionLimiter(int maxConnections, int ipv6Prefix) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.ipv6Prefix = Math.max(0, Math.min(128, ipv6Prefix));
+    }
+
+    /**
+     * 根据配置创建限制器，未开启时返回 null。参数未变化时沿用 previous，保留已有连接的计数。
+     */
+    public static ClientConnectionLimiter from(DetectorSettings settings, ClientConnectionLimiter previous) {
+        if (settings.maxConnectionsPerClient() <= 0) {
+            return null;
+        }
+        if (previous != null && previous.sameLimits(settings)) {
+            return previous;
+        }
+        return new ClientConnectionLimiter(settings.maxConnectionsPerClient(), settings.clientLimitIpv6Prefix());
+    }
+
+    private boolean sameLimits(DetectorSettings settings) {
+        return maxConnections == Math.max(1, settings.maxConnectionsPerClient())
+            && ipv6Prefix == Math.max(0, Math.min(128, settings.clientLimitIpv6Prefix()));
+    }
+
+    /**
+     * 解析 readerIndex 处完整 PROXY 头中的源地址并为其占用一个名额，名额在 channel 关闭时归还；该客户端已达上限时返回 false。
+     * 头中没有可用的源地址时占用 {@link #NO_ADDRESS} 的名额。
+     */
+    public boolean tryAcquire(Channel channel, ByteBuf header) {
+        ProxyAddress address = ADDRESS.get();
+        ClientKey key = address.parse(header) ? keyOf(address) : NO_ADDRESS;
+        while (true) {
+            AtomicInteger counter = counters.computeIfAbsent(key, ignored -> new AtomicInteger());
+            int current = counter.get();
+            if (current == RETIRED) {
+                counters.remove(key, counter);
+                continue;
+            }
+            if (current >= maxConnections) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                channel.closeFuture().addListener(new Release(key, counter));
+                return true;
+            }
+        }
+    }
+
+    public int trackedClients() {
+        return counters.size();
+    }
+
+    private void release(ClientKey key, AtomicInteger counter) {
+        if (counter.decrementAndGet() == 0 && counter.compareAndSet(0, RETIRED)) {
+            counters.remove(key, counter);
+        }
+    }
+
+    private ClientKey keyOf(ProxyAddress address) {
+        if (address.family() == ProxyHeaderInfo.FAMILY_INET) {
+            return new ClientKey(0, V4_MAPPED_HIGH_BITS | address.sourceLow());
+        }
+
+        long high = address.sourceHigh();
+        long low = address.sourceLow();
+        if (ipv6Prefix <= 64) {
+            high &= ipv6Prefix == 0 ? 0 : -1L << (64 - ipv6Prefix);
+            low = 0;
+        } else {
+            low &= ipv6Prefix == 128 ? -1L : -1L << (128 - ipv6Prefix);
+        }
+        return new ClientKey(high, low);
+    }
+
+    private record ClientKey(long high, long low) {
+    }
+
+    private final class Release implements ChannelFutureListener {
+        private final ClientKey key;
+        private final AtomicInteger counter;
+
+        private Release(ClientKey key, AtomicInteger counter) {
+            this.key = key;
+            this.counter = counter;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            release(key, counter);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听 config.yml 的修改，合并短时间内的多次写入后在调度线程上触发一次重载。
+ */
+final class ConfigWatcher implements AutoCloseable {
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final WatchService watchService;
+    private final Path fileName;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable onChange;
+    private final Thread thread;
+    private ScheduledFuture<?> pending;
+
+    private ConfigWatcher(WatchService watchService, Path configFile, ScheduledExecutorService scheduler, Runnable onChange) {
+        this.watchService = watchService;
+        this.fileName = configFile.getFileName();
+        this.scheduler = scheduler;
+        this.onChange = onChange;
+        this.thread = new Thread(this::run, "HAProxyDetector-ConfigWatcher");
+        this.thread.setDaemon(true);
+    }
+
+    static ConfigWatcher start(Path configFile, ScheduledExecutorService scheduler, Runnable onChange) throws IOException {
+        Path directory = configFile.toAbsolutePath().getParent();
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        ConfigWatcher watcher = new ConfigWatcher(watchService, configFile, scheduler, onChange);
+        watcher.thread.start();
+        return watcher;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    schedule();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private synchronized void schedule() {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        try {
+            pending = scheduler.schedule(onChange, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception ignored) {
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        thread.interrupt();
+    }
+}
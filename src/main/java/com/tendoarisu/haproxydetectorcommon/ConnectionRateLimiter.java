@@ -0,0 +1,165 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按来源地址限制建连速率的令牌桶，以 GCRA 形式实现：每个来源只保存一个「理论到达时间」，CAS 更新，无锁。
+ * IPv4 按单个地址计数，IPv6 按配置的前缀聚合。查找用线程内复用的键，只有新建桶时才复制一份存入表中。
+ * 跟踪的来源数有上限：表满时新来源按地址散列到固定数量的溢出桶，一个来源刷满溢出桶只会影响与它散列到同一桶的少数来源，
+ * 而不是所有新来源。清理已回满的桶只在后台调度线程上进行（表满时每秒一次），建连路径上不会遍历整张表。
+ */
+public final class ConnectionRateLimiter {
+    private static final long V4_MAPPED_HIGH_BITS = 0xFFFF_0000_0000L;
+    private static final int OVERFLOW_BUCKETS = 1024;
+    private static final FastThreadLocal<SourceKey> LOOKUP_KEY = new FastThreadLocal<>() {
+        @Override
+        protected SourceKey initialValue() {
+            return new SourceKey();
+        }
+    };
+
+    private final long ratePerSecond;
+    private final long burst;
+    private final int ipv6Prefix;
+    private final int maxSources;
+    private final long emissionNanos;
+    private final long toleranceNanos;
+    private final ConcurrentHashMap<SourceKey, AtomicLong> buckets;
+    private final AtomicLong[] overflow = new AtomicLong[OVERFLOW_BUCKETS];
+
+    public ConnectionRateLimiter(long ratePerSecond, long burst, int ipv6Prefix, int maxSources) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.ipv6Prefix = Math.max(0, Math.min(128, ipv6Prefix));
+        this.maxSources = Math.max(1, maxSources);
+        this.emissionNanos = 1_000_000_000L / Math.max(1, ratePerSecond);
+        this.toleranceNanos = emissionNanos * (this.burst - 1);
+        this.buckets = new ConcurrentHashMap<>(Math.min(this.maxSources, 1024));
+        long now = System.nanoTime();
+        for (int i = 0; i < OVERFLOW_BUCKETS; i++) {
+            overflow[i] = new AtomicLong(now);
+        }
+    }
+
+    /**
+     * 根据配置创建限速器，未开启限速时返回 null。参数未变化时沿用 previous，保留已有的计数。
+     */
+    public static ConnectionRateLimiter from(DetectorSettings settings, ConnectionRateLimiter previous) {
+        if (settings.connectionRateLimit() <= 0) {
+            return null;
+        }
+        if (previous != null && previous.sameLimits(settings)) {
+            return previous;
+        }
+        return new ConnectionRateLimiter(settings.connectionRateLimit(), settings.connectionRateBurst(),
+            settings.rateLimitIpv6Prefix(), settings.rateLimitMaxSources());
+    }
+
+    private boolean sameLimits(DetectorSettings settings) {
+        return ratePerSecond == settings.connectionRateLimit()
+            && burst == Math.max(1, settings.connectionRateBurst())
+            && ipv6Prefix == Math.max(0, Math.min(128, settings.rateLimitIpv6Prefix()))
+            && maxSources == Math.max(1, settings.rateLimitMaxSources());
+    }
+
+    public boolean tryAcquire(InetAddress address) {
+        long now = System.nanoTime();
+        SourceKey key = keyOf(address, LOOKUP_KEY.get());
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxSources) {
+                bucket = overflow[key.hashCode() & (OVERFLOW_BUCKETS - 1)];
+            } else {
+                bucket = buckets.computeIfAbsent(key.copy(), ignored -> new AtomicLong(now));
+            }
+        }
+        return tryAcquire(bucket, now);
+    }
+
+    private boolean tryAcquire(AtomicLong bucket, long now) {
+        while (true) {
+            long stored = bucket.get();
+            long arrival = stored - now < 0 ? now : stored;
+            if (arrival - now > toleranceNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(stored, arrival + emissionNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 移除已经完全回满的桶。回满的桶与新建的桶行为相同，移除不会放宽限制。
+     */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    /**
+     * 表是否已满，新来源正在使用溢出桶。
+     */
+    public boolean full() {
+        return buckets.size() >= maxSources;
+    }
+
+    public int trackedSources() {
+        return buckets.size();
+    }
+
+    private SourceKey keyOf(InetAddress address, SourceKey key) {
+        if (address instanceof Inet4Address) {
+            return key.set(0, V4_MAPPED_HIGH_BITS | (CidrTrie.ipv4ToInt(address) & 0xFFFF_FFFFL));
+        }
+
+        byte[] bytes = address.getAddress();
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+            low = (low << 8) | (bytes[i + 8] & 0xFF);
+        }
+        if (ipv6Prefix <= 64) {
+            high &= ipv6Prefix == 0 ? 0 : -1L << (64 - ipv6Prefix);
+            low = 0;
+        } else {
+            low &= ipv6Prefix == 128 ? -1L : -1L << (128 - ipv6Prefix);
+        }
+        return key.set(high, low);
+    }
+
+    /**
+     * 可变的地址键。表中存放的键在 {@link #copy()} 之后不再修改；查找用的键每个线程一个，逐次覆盖。
+     */
+    private static final class SourceKey {
+        private long high;
+        private long low;
+
+        private SourceKey set(long high, long low) {
+            this.high = high;
+            this.low = low;
+            return this;
+        }
+
+        private SourceKey copy() {
+            return new SourceKey().set(high, low);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SourceKey key && key.high == high && key.low == low;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = (high * 0x9E3779B97F4A7C15L) ^ (low * 0xC2B2AE3D27D4EB4FL);
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
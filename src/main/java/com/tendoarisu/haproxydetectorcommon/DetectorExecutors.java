@@ -0,0 +1,30 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+public final class DetectorExecutors {
+
+    private DetectorExecutors() {
+    }
+
+    /**
+     * 单线程守护调度器，用于 DNS 刷新等后台任务，永远不在 Netty 事件循环上执行。
+     */
+    public static ScheduledExecutorService newScheduler(String name) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return scheduler;
+    }
+
+    public static ExecutorService newVirtualExecutor(String prefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+    }
+}
@@ -0,0 +1,248 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接分类结果计数与「建连到首包判定」耗时直方图（抽样）。全部基于 LongAdder，事件循环线程上只做无锁累加，
+ * 读取方（命令、Prometheus 导出）自行汇总，读到的是近似一致的快照。
+ */
+public final class DetectorMetrics {
+
+    public enum Outcome {
+        PROXIED("proxied", "真实代理"),
+        SYNTHETIC("synthetic", "直连（伪造头）"),
+        GEYSER("geyser", "Geyser 放行"),
+        LEGACY_PING("legacy_ping", "旧版 Ping 放行"),
+        LOCAL("local", "本地连接放行"),
+        PASSTHROUGH("passthrough", "非 TCP 放行"),
+        BLOCKED("blocked", "拦截"),
+        RATE_LIMITED("rate_limited", "限速拦截"),
+        BANNED("banned", "封禁拦截"),
+        TIMEOUT("timeout", "首包超时"),
+        OTHER_PROTOCOL("other_protocol", "其它协议放行"),
+        REJECTED("rejected", "其它协议拦截"),
+        MALFORMED("malformed", "畸形代理头拦截"),
+        CLIENT_LIMITED("client_limited", "客户端并发超限拦截");
+
+        private final String label;
+        private final String displayName;
+
+        Outcome(String label, String displayName) {
+            this.label = label;
+            this.displayName = displayName;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public String displayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * 耗时直方图按 1/LATENCY_SAMPLE_RATE 抽样，只有被抽中的连接才需要在 channel 上记录建连时间。
+     */
+    public static final int LATENCY_SAMPLE_RATE = 16;
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+    private static final ProxyHeaderValidator.Reason[] REASONS = ProxyHeaderValidator.Reason.values();
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+        10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000
+    };
+
+    private final LongAdder[] outcomes = newAdders(OUTCOMES.length);
+    private final LongAdder[] malformed = newAdders(REASONS.length);
+    private final LongAdder[] buckets = newAdders(BUCKET_BOUNDS_MICROS.length + 1);
+    private final LongAdder latencySumNanos = new LongAdder();
+
+    /**
+     * 记录一次判定。acceptNanos 为 handler 挂到连接上时的 System.nanoTime()，传 0 表示不统计耗时。
+     */
+    public void record(Outcome outcome, long acceptNanos) {
+        outcomes[outcome.ordinal()].increment();
+        if (acceptNanos != 0) {
+            recordLatency(System.nanoTime() - acceptNanos);
+        }
+    }
+
+    /**
+     * 记录一次因 PROXY 头格式错误而关闭的连接，同时计入 {@link Outcome#MALFORMED}。
+     */
+    public void recordMalformed(ProxyHeaderValidator.Reason reason, long acceptNanos) {
+        malformed[reason.ordinal()].increment();
+        record(Outcome.MALFORMED, acceptNanos);
+    }
+
+    public boolean sampleLatency() {
+        return ThreadLocalRandom.current().nextInt(LATENCY_SAMPLE_RATE) == 0;
+    }
+
+    public void recordLatency(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1_000;
+        int index = 0;
+        while (index < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        latencySumNanos.add(nanos);
+    }
+
+    public long count(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    public Snapshot snapshot() {
+        long[] outcomeCounts = new long[outcomes.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomeCounts[i] = outcomes[i].sum();
+        }
+        long[] bucketCounts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            bucketCounts[i] = buckets[i].sum();
+        }
+        long[] malformedCounts = new long[malformed.length];
+        for (int i = 0; i < malformed.length; i++) {
+            malformedCounts[i] = malformed[i].sum();
+        }
+        return new Snapshot(outcomeCounts, malformedCounts, bucketCounts, latencySumNanos.sum());
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public static final class Snapshot {
+        private final long[] outcomeCounts;
+        private final long[] malformedCounts;
+        private final long[] bucketCounts;
+        private final long latencySumNanos;
+        private final long latencyCount;
+
+        private Snapshot(long[] outcomeCounts, long[] malformedCounts, long[] bucketCounts, long latencySumNanos) {
+            this.outcomeCounts = outcomeCounts;
+            this.malformedCounts = malformedCounts;
+            this.bucketCounts = bucketCounts;
+            this.latencySumNanos = latencySumNanos;
+            long total = 0;
+            for (long count : bucketCounts) {
+                total += count;
+            }
+            this.latencyCount = total;
+        }
+
+        public long count(Outcome outcome) {
+            return outcomeCounts[outcome.ordinal()];
+        }
+
+        public long count(ProxyHeaderValidator.Reason reason) {
+            return malformedCounts[reason.ordinal()];
+        }
+
+        public long total() {
+            long total = 0;
+            for (long count : outcomeCounts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * 按直方图估算分位数，返回所在桶的上界（微秒）；落在最后一个桶时返回 -1，表示超过 1 秒。
+         */
+        public long percentileMicros(double quantile) {
+            if (latencyCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * latencyCount);
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return i < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[i] : -1;
+                }
+            }
+            return -1;
+        }
+
+        public List<String> describe() {
+            List<String> lines = new ArrayList<>();
+            lines.add("连接统计（共 " + total() + " 个）:");
+            for (Outcome outcome : OUTCOMES) {
+                lines.add("  " + outcome.displayName() + ": " + count(outcome));
+            }
+            if (count(Outcome.MALFORMED) > 0) {
+                StringBuilder reasons = new StringBuilder("畸形代理头原因:");
+                for (ProxyHeaderValidator.Reason reason : REASONS) {
+                    if (count(reason) > 0) {
+                        reasons.append(' ').append(reason.displayName()).append(' ').append(count(reason)).append(';');
+                    }
+                }
+                lines.add(reasons.substring(0, reasons.length() - 1));
+            }
+            if (latencyCount > 0) {
+                lines.add("首包判定耗时: 平均 " + formatMicros(latencySumNanos / latencyCount / 1_000)
+                    + ", p50 ≤ " + formatBound(percentileMicros(0.5))
+                    + ", p99 ≤ " + formatBound(percentileMicros(0.99)));
+            }
+            return lines;
+        }
+
+        public String toPrometheus() {
+            StringBuilder out = new StringBuilder(1024);
+            out.append("# HELP haproxydetector_connections_total Connections by first-packet outcome.\n");
+            out.append("# TYPE haproxydetector_connections_total counter\n");
+            for (Outcome outcome : OUTCOMES) {
+                out.append("haproxydetector_connections_total{outcome=\"").append(outcome.label()).append("\"} ")
+                    .append(count(outcome)).append('\n');
+            }
+
+            out.append("# HELP haproxydetector_malformed_headers_total PROXY headers rejected as malformed, by reason.\n");
+            out.append("# TYPE haproxydetector_malformed_headers_total counter\n");
+            for (ProxyHeaderValidator.Reason reason : REASONS) {
+                out.append("haproxydetector_malformed_headers_total{reason=\"").append(reason.label()).append("\"} ")
+                    .append(count(reason)).append('\n');
+            }
+
+            out.append("# HELP haproxydetector_decision_seconds Time from accept to first-packet decision, sampled 1 in ")
+                .append(LATENCY_SAMPLE_RATE).append(" connections.\n");
+            out.append("# TYPE haproxydetector_decision_seconds histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                cumulative += bucketCounts[i];
+                String bound = i < BUCKET_BOUNDS_MICROS.length
+                    ? String.format(Locale.ROOT, "%.6f", BUCKET_BOUNDS_MICROS[i] / 1_000_000.0)
+                    : "+Inf";
+                out.append("haproxydetector_decision_seconds_bucket{le=\"").append(bound).append("\"} ")
+                    .append(cumulative).append('\n');
+            }
+            out.append("haproxydetector_decision_seconds_sum ")
+                .append(String.format(Locale.ROOT, "%.9f", latencySumNanos / 1_000_000_000.0)).append('\n');
+            out.append("haproxydetector_decision_seconds_count ").append(latencyCount).append('\n');
+            return out.toString();
+        }
+
+        private static String formatBound(long micros) {
+            return micros < 0 ? "> 1s" : formatMicros(micros);
+        }
+
+        private static String formatMicros(long micros) {
+            if (micros >= 1_000) {
+                return String.format(Locale.ROOT, "%.1fms", micros / 1_000.0);
+            }
+            return micros + "µs";
+        }
+    }
+}
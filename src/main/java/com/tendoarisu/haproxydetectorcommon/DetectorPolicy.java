@@ -0,0 +1,84 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.net.InetAddress;
+
+/**
+ * 某一时刻生效的检测策略，构建后不可变。重载配置或 DNS 刷新时整体替换，连接处理只需读取一次引用。
+ */
+public final class DetectorPolicy {
+    private final DetectorSettings settings;
+    private final boolean whitelistEnabled;
+    private final CidrTrie whitelist;
+    private final boolean contiguousSyntheticHeader;
+    private final boolean directProxyMessage;
+    private final boolean dropNonMinecraft;
+    private final ConnectionRateLimiter rateLimiter;
+    private final TemporaryBanList banList;
+    private final ClientConnectionLimiter clientLimiter;
+
+    public DetectorPolicy(DetectorSettings settings, CidrTrie whitelist, ConnectionRateLimiter rateLimiter,
+                          TemporaryBanList banList, ClientConnectionLimiter clientLimiter) {
+        this.settings = settings;
+        this.whitelistEnabled = settings.whitelistEnabled();
+        this.whitelist = whitelist;
+        this.contiguousSyntheticHeader = settings.contiguousSyntheticHeader();
+        this.directProxyMessage = settings.directProxyMessage();
+        this.dropNonMinecraft = settings.dropNonMinecraft();
+        this.rateLimiter = rateLimiter;
+        this.banList = banList;
+        this.clientLimiter = clientLimiter;
+    }
+
+    public DetectorSettings settings() {
+        return settings;
+    }
+
+    public boolean whitelistEnabled() {
+        return whitelistEnabled;
+    }
+
+    public CidrTrie whitelist() {
+        return whitelist;
+    }
+
+    public boolean isWhitelisted(InetAddress address) {
+        return address != null && whitelist.contains(address);
+    }
+
+    public boolean contiguousSyntheticHeader() {
+        return contiguousSyntheticHeader;
+    }
+
+    public boolean directProxyMessage() {
+        return directProxyMessage;
+    }
+
+    public boolean dropNonMinecraft() {
+        return dropNonMinecraft;
+    }
+
+    /**
+     * 未开启连接限速时返回 null。
+     */
+    public ConnectionRateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * 未开启临时封禁时返回 null。
+     */
+    public TemporaryBanList banList() {
+        return banList;
+    }
+
+    /**
+     * 未开启单客户端并发连接上限时返回 null。
+     */
+    public ClientConnectionLimiter clientLimiter() {
+        return clientLimiter;
+    }
+
+    DetectorPolicy withWhitelist(CidrTrie whitelist) {
+        return new DetectorPolicy(settings, whitelist, rateLimiter, banList, clientLimiter);
+    }
+}
@@ -0,0 +1,235 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 插件实例共享的运行时状态：当前策略快照、后台调度线程以及白名单解析器。
+ * 写入方（重载、DNS 刷新）串行化，读取方只做一次 volatile 读取。
+ */
+public final class DetectorRuntime {
+    private static final long SWEEP_SECONDS = 30;
+    private static final long FULL_EVICT_SECONDS = 1;
+
+    private final ScheduledExecutorService scheduler;
+    private final Path dataDirectory;
+    private final WhitelistResolver.HostResolver hostResolver;
+    private final DetectorMetrics metrics = new DetectorMetrics();
+    private final BlockLog blockLog;
+    private final FirstPacketDeadline firstPacketDeadline = new FirstPacketDeadline(metrics);
+    private final Consumer<String> warningLog;
+    private volatile DetectorPolicy policy;
+    private volatile boolean attached = true;
+    /**
+     * 重载后、新白名单第一轮域名解析完成前仍保留的旧白名单，命中它的来源被拦截时不累计封禁次数。
+     */
+    private volatile CidrTrie pendingWhitelist;
+    private WhitelistResolver resolver;
+    private ConfigWatcher watcher;
+    private ScheduledFuture<?> metricsExport;
+
+    public DetectorRuntime(String name, Path dataDirectory, WhitelistResolver.HostResolver hostResolver,
+                           Consumer<String> warningLog) {
+        this.scheduler = DetectorExecutors.newScheduler(name + "-Scheduler");
+        this.dataDirectory = dataDirectory;
+        this.hostResolver = hostResolver;
+        this.warningLog = warningLog;
+        this.blockLog = new BlockLog(warningLog, BlockLog.DEFAULT_CAPACITY);
+        this.policy = new DetectorPolicy(DetectorSettings.defaults(), CidrTrie.empty(), null, null, null);
+        scheduler.scheduleWithFixedDelay(this::sweepSources, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::evictFullSources, FULL_EVICT_SECONDS, FULL_EVICT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public DetectorPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * 为 false 时插件已经卸载，仍挂在连接上的检测 handler 在下一次事件时自行移除并原样放行，不再逐个 channel 跟踪或提交移除任务。
+     */
+    public boolean attached() {
+        return attached;
+    }
+
+    public void detach() {
+        attached = false;
+    }
+
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    public DetectorMetrics metrics() {
+        return metrics;
+    }
+
+    public BlockLog blockLog() {
+        return blockLog;
+    }
+
+    /**
+     * 为刚挂上 handler 的连接登记首包超时，时长取当前配置的 first-packet-timeout。
+     */
+    public void watchFirstPacket(ChannelHandlerContext ctx) {
+        firstPacketDeadline.register(ctx, policy.settings().firstPacketTimeout());
+    }
+
+    /**
+     * 发布新配置。IP / CIDR 条目立即生效，域名条目在后台解析完成后再次发布，返回第一轮解析的 future。
+     */
+    public synchronized CompletableFuture<CidrTrie> apply(DetectorSettings settings) {
+        if (resolver != null) {
+            resolver.stop();
+        }
+
+        WhitelistResolver next = new WhitelistResolver(settings.whitelistEntries(), hostResolver,
+            whitelist -> publishWhitelist(settings, whitelist), resolver);
+        resolver = next;
+        DetectorPolicy previous = policy;
+        pendingWhitelist = next.hasHosts() ? previous.whitelist() : null;
+        policy = new DetectorPolicy(settings, next.current(),
+            ConnectionRateLimiter.from(settings, previous.rateLimiter()), TemporaryBanList.from(settings, previous.banList()),
+            ClientConnectionLimiter.from(settings, previous.clientLimiter()));
+        scheduleMetricsExport(settings);
+        blockLog.schedule(scheduler, settings.blockLogInterval());
+        return next.start(scheduler, settings.whitelistRefreshInterval());
+    }
+
+    private synchronized void publishWhitelist(DetectorSettings settings, CidrTrie whitelist) {
+        DetectorPolicy current = policy;
+        if (current.settings() == settings) {
+            policy = current.withWhitelist(whitelist);
+            pendingWhitelist = null;
+        }
+    }
+
+    /**
+     * 在服务端初始化子连接之前判断是否允许新连接建立：先查临时封禁，再做限速，白名单中的 frps 不受影响。
+     * 被拒绝的连接分别计入 BANNED / RATE_LIMITED，由调用方以 closeForcibly 关闭。
+     */
+    public boolean allowConnection(SocketAddress remoteAddress) {
+        DetectorPolicy current = policy;
+        ConnectionRateLimiter limiter = current.rateLimiter();
+        TemporaryBanList banList = current.banList();
+        if ((limiter == null && banList == null) || !(remoteAddress instanceof InetSocketAddress inetAddress)) {
+            return true;
+        }
+
+        InetAddress address = inetAddress.getAddress();
+        if (address == null || current.isWhitelisted(address)) {
+            return true;
+        }
+        if (banList != null && banList.isBanned(address)) {
+            metrics.record(DetectorMetrics.Outcome.BANNED, 0);
+            return false;
+        }
+        if (limiter != null && !limiter.tryAcquire(address)) {
+            metrics.record(DetectorMetrics.Outcome.RATE_LIMITED, 0);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次被拦截的 PROXY 连接，累计达到阈值时临时封禁该来源，封禁日志在调度线程上输出。
+     * 重载后新白名单尚未解析完时，命中旧白名单的来源只拦截、不累计。
+     */
+    public void reportBlocked(InetAddress address) {
+        TemporaryBanList banList = policy.banList();
+        if (banList == null || address == null) {
+            return;
+        }
+        CidrTrie pending = pendingWhitelist;
+        if (pending != null && pending.contains(address)) {
+            return;
+        }
+
+        long seconds = banList.strike(address);
+        if (seconds > 0) {
+            try {
+                scheduler.execute(() -> warningLog.accept("已临时封禁 " + address.getHostAddress() + "，时长 " + seconds + " 秒。"));
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+    }
+
+    private void sweepSources() {
+        DetectorPolicy current = policy;
+        if (current.rateLimiter() != null) {
+            current.rateLimiter().evictIdle();
+        }
+        if (current.banList() != null) {
+            current.banList().sweep();
+        }
+    }
+
+    /**
+     * 限速表满时提前清理已回满的桶，让新来源尽快离开溢出桶；表未满时只是一次 size 读取。
+     */
+    private void evictFullSources() {
+        ConnectionRateLimiter limiter = policy.rateLimiter();
+        if (limiter != null && limiter.full()) {
+            limiter.evictIdle();
+        }
+    }
+
+    private void scheduleMetricsExport(DetectorSettings settings) {
+        if (metricsExport != null) {
+            metricsExport.cancel(false);
+            metricsExport = null;
+        }
+        if (settings.metricsFile().isEmpty() || settings.metricsInterval() <= 0) {
+            return;
+        }
+
+        Path target = dataDirectory.resolve(settings.metricsFile());
+        metricsExport = scheduler.scheduleWithFixedDelay(() -> exportMetrics(target),
+            0, settings.metricsInterval(), TimeUnit.SECONDS);
+    }
+
+    private void exportMetrics(Path target) {
+        try {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.writeString(temp, metrics.snapshot().toPrometheus(), StandardCharsets.UTF_8);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ignored) {
+        }
+    }
+
+    public synchronized void watchConfig(Path configFile, Runnable onChange) throws IOException {
+        if (watcher == null) {
+            watcher = ConfigWatcher.start(configFile, scheduler, onChange);
+        }
+    }
+
+    public synchronized void shutdown() {
+        attached = false;
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        if (resolver != null) {
+            resolver.stop();
+        }
+        if (metricsExport != null) {
+            metricsExport.cancel(false);
+        }
+        blockLog.stop();
+        firstPacketDeadline.stop();
+        scheduler.shutdownNow();
+    }
+}
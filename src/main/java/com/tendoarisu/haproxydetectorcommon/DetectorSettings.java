@@ -0,0 +1,224 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * config.yml 的解析结果。Paper 与 Velocity 都先把配置读成顶层键值表，再统一在这里转换。
+ */
+public final class DetectorSettings {
+    private final boolean whitelistEnabled;
+    private final List<String> whitelistEntries;
+    private final long whitelistRefreshInterval;
+    private final boolean contiguousSyntheticHeader;
+    private final boolean directProxyMessage;
+    private final boolean autoReload;
+    private final String metricsFile;
+    private final long metricsInterval;
+    private final long connectionRateLimit;
+    private final long connectionRateBurst;
+    private final int rateLimitIpv6Prefix;
+    private final int rateLimitMaxSources;
+    private final int maxConnectionsPerClient;
+    private final int clientLimitIpv6Prefix;
+    private final long blockLogInterval;
+    private final int banThreshold;
+    private final long banFindTime;
+    private final long banDuration;
+    private final long banMaxDuration;
+    private final int banMaxEntries;
+    private final long firstPacketTimeout;
+    private final boolean dropNonMinecraft;
+    private final int tcpDeferAccept;
+    private final int tcpFastopen;
+    private final int listenBacklog;
+
+    private DetectorSettings(Map<String, ?> values) {
+        this.whitelistEnabled = getBoolean(values, "enable-whitelist", true);
+        this.whitelistEntries = getStringList(values, "whitelist");
+        this.whitelistRefreshInterval = getLong(values, "whitelist-refresh-interval", 300);
+        this.contiguousSyntheticHeader = getBoolean(values, "contiguous-synthetic-header", true);
+        this.directProxyMessage = getBoolean(values, "direct-proxy-message", false);
+        this.autoReload = getBoolean(values, "auto-reload", true);
+        this.metricsFile = getString(values, "metrics-file", "");
+        this.metricsInterval = getLong(values, "metrics-interval", 15);
+        this.connectionRateLimit = getLong(values, "connection-rate-limit", 0);
+        this.connectionRateBurst = getLong(values, "connection-rate-burst", 10);
+        this.rateLimitIpv6Prefix = (int) getLong(values, "rate-limit-ipv6-prefix", 64);
+        this.rateLimitMaxSources = (int) getLong(values, "rate-limit-max-sources", 65536);
+        this.maxConnectionsPerClient = (int) getLong(values, "max-connections-per-client", 0);
+        this.clientLimitIpv6Prefix = (int) getLong(values, "client-limit-ipv6-prefix", 64);
+        this.blockLogInterval = getLong(values, "block-log-interval", 10);
+        this.banThreshold = (int) getLong(values, "ban-threshold", 3);
+        this.banFindTime = getLong(values, "ban-find-time", 60);
+        this.banDuration = getLong(values, "ban-duration", 60);
+        this.banMaxDuration = getLong(values, "ban-max-duration", 3600);
+        this.banMaxEntries = (int) getLong(values, "ban-max-entries", 4096);
+        this.firstPacketTimeout = getLong(values, "first-packet-timeout", 5);
+        this.dropNonMinecraft = getBoolean(values, "drop-non-minecraft", false);
+        this.tcpDeferAccept = (int) getLong(values, "tcp-defer-accept", 0);
+        this.tcpFastopen = (int) getLong(values, "tcp-fastopen", 0);
+        this.listenBacklog = (int) getLong(values, "listen-backlog", 0);
+    }
+
+    public static DetectorSettings from(Map<String, ?> values) {
+        return new DetectorSettings(values);
+    }
+
+    public static DetectorSettings defaults() {
+        return new DetectorSettings(Collections.emptyMap());
+    }
+
+    public boolean whitelistEnabled() {
+        return whitelistEnabled;
+    }
+
+    public List<String> whitelistEntries() {
+        return whitelistEntries;
+    }
+
+    public long whitelistRefreshInterval() {
+        return whitelistRefreshInterval;
+    }
+
+    public boolean contiguousSyntheticHeader() {
+        return contiguousSyntheticHeader;
+    }
+
+    public boolean directProxyMessage() {
+        return directProxyMessage;
+    }
+
+    public boolean autoReload() {
+        return autoReload;
+    }
+
+    public String metricsFile() {
+        return metricsFile;
+    }
+
+    public long metricsInterval() {
+        return metricsInterval;
+    }
+
+    public long connectionRateLimit() {
+        return connectionRateLimit;
+    }
+
+    public long connectionRateBurst() {
+        return connectionRateBurst;
+    }
+
+    public int rateLimitIpv6Prefix() {
+        return rateLimitIpv6Prefix;
+    }
+
+    public int rateLimitMaxSources() {
+        return rateLimitMaxSources;
+    }
+
+    public int maxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    public int clientLimitIpv6Prefix() {
+        return clientLimitIpv6Prefix;
+    }
+
+    public long blockLogInterval() {
+        return blockLogInterval;
+    }
+
+    public int banThreshold() {
+        return banThreshold;
+    }
+
+    public long banFindTime() {
+        return banFindTime;
+    }
+
+    public long banDuration() {
+        return banDuration;
+    }
+
+    public long banMaxDuration() {
+        return banMaxDuration;
+    }
+
+    public int banMaxEntries() {
+        return banMaxEntries;
+    }
+
+    public long firstPacketTimeout() {
+        return firstPacketTimeout;
+    }
+
+    public boolean dropNonMinecraft() {
+        return dropNonMinecraft;
+    }
+
+    public int tcpDeferAccept() {
+        return tcpDeferAccept;
+    }
+
+    public int tcpFastopen() {
+        return tcpFastopen;
+    }
+
+    public int listenBacklog() {
+        return listenBacklog;
+    }
+
+    private static boolean getBoolean(Map<String, ?> values, String key, boolean defaultValue) {
+        Object value = values.get(key);
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        if (value != null) {
+            String text = value.toString().trim();
+            if (text.equalsIgnoreCase("true")) {
+                return true;
+            }
+            if (text.equalsIgnoreCase("false")) {
+                return false;
+            }
+        }
+        return defaultValue;
+    }
+
+    private static long getLong(Map<String, ?> values, String key, long defaultValue) {
+        Object value = values.get(key);
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String getString(Map<String, ?> values, String key, String defaultValue) {
+        Object value = values.get(key);
+        return value == null ? defaultValue : value.toString().trim();
+    }
+
+    private static List<String> getStringList(Map<String, ?> values, String key) {
+        Object value = values.get(key);
+        if (!(value instanceof List<?> list)) {
+            return Collections.emptyList();
+        }
+
+        List<String> result = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (item != null) {
+                result.add(item.toString());
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
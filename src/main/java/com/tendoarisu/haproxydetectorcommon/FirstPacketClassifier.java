@@ -0,0 +1,146 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 按首包前缀增量判断连接类型。完整前缀用 getLong / getInt 宽读取一次比较，HTTP 方法与 SSH 版本串查 4 字节签名表，
+ * 只有前缀仍可能是某个签名（或 VarInt 长度尚未读完）时才返回 {@link FirstPacketType#INCOMPLETE}，因此最多只需要 {@link #MAX_PREFIX} 字节。
+ */
+public final class FirstPacketClassifier {
+    public static final int MAX_PREFIX = 12;
+
+    private static final int TLS_HANDSHAKE = 0x16;
+    private static final int TLS_MAJOR_VERSION = 0x03;
+    private static final int TLS_MAX_MINOR_VERSION = 0x04;
+    private static final int VARINT_MAX_LENGTH_BYTES = 3;
+
+    private static final int[] WORD_SIGNATURES = {
+        word("GET "), word("POST"), word("HEAD"), word("PUT "), word("DELE"), word("OPTI"),
+        word("PATC"), word("CONN"), word("TRAC"), word("PRI "), word("SSH-")
+    };
+    private static final int WORD_FIRST_MIN = 'C';
+    private static final int WORD_FIRST_MAX = 'T';
+    private static final FirstPacketType[] WORD_TYPES = {
+        FirstPacketType.HTTP, FirstPacketType.HTTP, FirstPacketType.HTTP, FirstPacketType.HTTP, FirstPacketType.HTTP,
+        FirstPacketType.HTTP, FirstPacketType.HTTP, FirstPacketType.HTTP, FirstPacketType.HTTP, FirstPacketType.HTTP,
+        FirstPacketType.SSH
+    };
+
+    private FirstPacketClassifier() {
+    }
+
+    public static FirstPacketType classify(ByteBuf buf) {
+        int readerIndex = buf.readerIndex();
+        int readableBytes = buf.readableBytes();
+        if (readableBytes < 1) {
+            return FirstPacketType.INCOMPLETE;
+        }
+
+        int first = buf.getUnsignedByte(readerIndex);
+        if (first == ProxyProtocol.V1_SIG[0]) {
+            if (readableBytes >= ProxyProtocol.V1_SIG_LENGTH) {
+                if (ProxyProtocol.isV1Signature(buf, readerIndex)) {
+                    return FirstPacketType.PROXY_V1;
+                }
+            } else if (isPrefix(buf, readerIndex, readableBytes, ProxyProtocol.V1_SIG)) {
+                return FirstPacketType.INCOMPLETE;
+            }
+        } else if (first == ProxyProtocol.V2_SIG[0]) {
+            if (readableBytes >= ProxyProtocol.V2_SIG_LENGTH) {
+                if (ProxyProtocol.isV2Signature(buf, readerIndex)) {
+                    return FirstPacketType.PROXY_V2;
+                }
+            } else if (isPrefix(buf, readerIndex, readableBytes, ProxyProtocol.V2_SIG)) {
+                return FirstPacketType.INCOMPLETE;
+            }
+        } else if (first == 0xFE) {
+            return FirstPacketType.LEGACY_PING;
+        } else if (first == 0) {
+            return FirstPacketType.MINECRAFT;
+        }
+
+        if (readableBytes < 2) {
+            return FirstPacketType.INCOMPLETE;
+        }
+
+        int second = buf.getUnsignedByte(readerIndex + 1);
+        if ((first & 0x80) == 0 && second == 0) {
+            return FirstPacketType.MINECRAFT;
+        }
+
+        if (first == TLS_HANDSHAKE && second == TLS_MAJOR_VERSION) {
+            if (readableBytes < 3) {
+                return FirstPacketType.INCOMPLETE;
+            }
+            if (buf.getUnsignedByte(readerIndex + 2) <= TLS_MAX_MINOR_VERSION) {
+                return FirstPacketType.TLS;
+            }
+        }
+
+        if (first >= WORD_FIRST_MIN && first <= WORD_FIRST_MAX) {
+            if (readableBytes < 4) {
+                if (isWordPrefix(buf, readerIndex, readableBytes)) {
+                    return FirstPacketType.INCOMPLETE;
+                }
+            } else {
+                int word = buf.getInt(readerIndex);
+                for (int i = 0; i < WORD_SIGNATURES.length; i++) {
+                    if (word == WORD_SIGNATURES[i]) {
+                        return WORD_TYPES[i];
+                    }
+                }
+            }
+        }
+
+        return classifyVarIntPacket(buf, readerIndex, readableBytes);
+    }
+
+    /**
+     * 长度超过 127 字节的握手包以多字节 VarInt 开头，读完长度后紧跟的包 ID 为 0 才是 Minecraft 握手。
+     */
+    private static FirstPacketType classifyVarIntPacket(ByteBuf buf, int readerIndex, int readableBytes) {
+        int position = 0;
+        while ((buf.getByte(readerIndex + position) & 0x80) != 0) {
+            position++;
+            if (position == VARINT_MAX_LENGTH_BYTES) {
+                return FirstPacketType.GEYSER;
+            }
+            if (position >= readableBytes) {
+                return FirstPacketType.INCOMPLETE;
+            }
+        }
+
+        int packetId = position + 1;
+        if (packetId >= readableBytes) {
+            return FirstPacketType.INCOMPLETE;
+        }
+        return buf.getByte(readerIndex + packetId) == 0 ? FirstPacketType.MINECRAFT : FirstPacketType.GEYSER;
+    }
+
+    private static boolean isPrefix(ByteBuf buf, int readerIndex, int readableBytes, byte[] signature) {
+        for (int i = 0; i < readableBytes; i++) {
+            if (buf.getByte(readerIndex + i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordPrefix(ByteBuf buf, int readerIndex, int readableBytes) {
+        int partial = 0;
+        for (int i = 0; i < readableBytes; i++) {
+            partial = (partial << 8) | buf.getUnsignedByte(readerIndex + i);
+        }
+        int shift = (4 - readableBytes) * 8;
+        for (int signature : WORD_SIGNATURES) {
+            if (signature >>> shift == partial) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int word(String signature) {
+        return (signature.charAt(0) << 24) | (signature.charAt(1) << 16) | (signature.charAt(2) << 8) | signature.charAt(3);
+    }
+}
@@ -0,0 +1,206 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 首包超时：handler 挂上后在限定时间内仍未判定出连接类型（没有发送数据，或前缀不足以判断）的连接会被关闭并计入 TIMEOUT。
+ * 每个事件循环只有一个环形队列和一个定时任务，连接本身不创建定时任务；每个条目保存自己的绝对到期时间。
+ * 超时不变时条目按到期时间排列，只需从队首弹出；重载调小超时后新条目会比队尾更早到期，
+ * 此时队列标记为无序，到期时整体扫描一遍并压缩，直到剩下的条目重新有序。
+ * 到期时 handler 已经移除（已完成判定或连接已关闭）的条目直接跳过。队列只在所属事件循环上访问，无需加锁。
+ */
+public final class FirstPacketDeadline {
+    private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final DetectorMetrics metrics;
+    private final Map<EventExecutor, LoopDeadlines> loops = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    public FirstPacketDeadline(DetectorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 在 handlerAdded 中调用。timeoutSeconds 不大于 0 时不做任何事。
+     */
+    public void register(ChannelHandlerContext ctx, long timeoutSeconds) {
+        if (timeoutSeconds <= 0 || stopped) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        EventExecutor executor = ctx.executor();
+        if (executor.inEventLoop()) {
+            add(executor, ctx, deadline);
+        } else {
+            executor.execute(() -> add(executor, ctx, deadline));
+        }
+    }
+
+    private void add(EventExecutor executor, ChannelHandlerContext ctx, long deadline) {
+        loops.computeIfAbsent(executor, LoopDeadlines::new).add(ctx, deadline);
+    }
+
+    public void stop() {
+        stopped = true;
+        for (LoopDeadlines loop : loops.values()) {
+            try {
+                loop.executor.execute(loop::clear);
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+        loops.clear();
+    }
+
+    private final class LoopDeadlines implements Runnable {
+        private final EventExecutor executor;
+        private ChannelHandlerContext[] contexts = new ChannelHandlerContext[INITIAL_CAPACITY];
+        private long[] deadlines = new long[INITIAL_CAPACITY];
+        private int head;
+        private int size;
+        private boolean ordered = true;
+        private ScheduledFuture<?> tick;
+        private long tickDeadline;
+
+        private LoopDeadlines(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void add(ChannelHandlerContext ctx, long deadline) {
+            if (size == contexts.length) {
+                grow();
+            }
+            int mask = contexts.length - 1;
+            if (size > 0 && deadline - deadlines[(head + size - 1) & mask] < 0) {
+                ordered = false;
+            }
+            int index = (head + size) & mask;
+            contexts[index] = ctx;
+            deadlines[index] = deadline;
+            size++;
+            if (tick == null) {
+                arm(deadline);
+            } else if (deadline - tickDeadline < 0) {
+                tick.cancel(false);
+                arm(deadline);
+            }
+        }
+
+        @Override
+        public void run() {
+            tick = null;
+            if (stopped) {
+                clear();
+                return;
+            }
+
+            long now = System.nanoTime();
+            long next = ordered ? expireHead(now) : expireAll(now);
+            if (size == 0) {
+                loops.remove(executor, this);
+                return;
+            }
+            arm(next);
+        }
+
+        /**
+         * 有序时只弹出队首已到期的条目，返回新队首的到期时间。
+         */
+        private long expireHead(long now) {
+            int mask = contexts.length - 1;
+            while (size > 0 && deadlines[head] - now <= 0) {
+                ChannelHandlerContext ctx = contexts[head];
+                contexts[head] = null;
+                head = (head + 1) & mask;
+                size--;
+                expire(ctx);
+            }
+            return deadlines[head];
+        }
+
+        /**
+         * 无序时扫描全部条目，关闭已到期的，其余按原顺序前移压缩，返回剩余条目中最早的到期时间。
+         * 剩余条目已经有序时恢复只看队首的快速路径。
+         */
+        private long expireAll(long now) {
+            int mask = contexts.length - 1;
+            int kept = 0;
+            boolean sorted = true;
+            long next = 0;
+            for (int i = 0; i < size; i++) {
+                int from = (head + i) & mask;
+                ChannelHandlerContext ctx = contexts[from];
+                long deadline = deadlines[from];
+                contexts[from] = null;
+                if (deadline - now <= 0) {
+                    expire(ctx);
+                    continue;
+                }
+                if (ctx.isRemoved()) {
+                    continue;
+                }
+                if (kept > 0) {
+                    long previous = deadlines[(head + kept - 1) & mask];
+                    sorted &= deadline - previous >= 0;
+                }
+                if (kept == 0 || deadline - next < 0) {
+                    next = deadline;
+                }
+                int to = (head + kept) & mask;
+                contexts[to] = ctx;
+                deadlines[to] = deadline;
+                kept++;
+            }
+            size = kept;
+            ordered = sorted;
+            return next;
+        }
+
+        private void expire(ChannelHandlerContext ctx) {
+            if (!ctx.isRemoved() && ctx.channel().isOpen()) {
+                metrics.record(DetectorMetrics.Outcome.TIMEOUT, 0);
+                ctx.close();
+            }
+        }
+
+        private void arm(long deadline) {
+            tickDeadline = deadline;
+            long delayNanos = deadline - System.nanoTime();
+            tick = executor.schedule(this, Math.max(delayNanos, MIN_TICK_NANOS), TimeUnit.NANOSECONDS);
+        }
+
+        private void grow() {
+            int capacity = contexts.length;
+            ChannelHandlerContext[] nextContexts = new ChannelHandlerContext[capacity << 1];
+            long[] nextDeadlines = new long[capacity << 1];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) & (capacity - 1);
+                nextContexts[i] = contexts[index];
+                nextDeadlines[i] = deadlines[index];
+            }
+            contexts = nextContexts;
+            deadlines = nextDeadlines;
+            head = 0;
+        }
+
+        private void clear() {
+            if (tick != null) {
+                tick.cancel(false);
+                tick = null;
+            }
+            contexts = new ChannelHandlerContext[INITIAL_CAPACITY];
+            deadlines = new long[INITIAL_CAPACITY];
+            head = 0;
+            size = 0;
+            ordered = true;
+        }
+    }
+}
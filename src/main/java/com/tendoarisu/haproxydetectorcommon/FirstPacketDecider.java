@@ -0,0 +1,248 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Paper 与 Velocity 检测 handler 共用的首包判定：前缀与不完整 PROXY 头的暂存、白名单 / 格式 / 并发上限检查的顺序、计数与 PROXY 头信息发布都在这里，
+ * handler 只根据返回的 {@link Action} 操作 pipeline。实例与 handler 一样被所有连接共享，单连接状态放在 channel 属性上。
+ */
+public final class FirstPacketDecider {
+
+    public enum Action {
+        /**
+         * 原样交给下游。
+         */
+        FORWARD,
+        /**
+         * 直连：由 handler 通过 {@link #directMessage} 或 {@link #syntheticHeader} 加上代理信息后交给下游。
+         */
+        SYNTHETIC,
+        /**
+         * 已释放首包并计数，handler 关闭连接即可。
+         */
+        CLOSE
+    }
+
+    /**
+     * 拦截时解析客户端地址用的线程内实例，{@link BlockLog#record} 只拷贝打包后的字段，调用后即可复用。
+     */
+    private static final FastThreadLocal<ProxyAddress> BLOCKED_CLIENT = new FastThreadLocal<>() {
+        @Override
+        protected ProxyAddress initialValue() {
+            return new ProxyAddress();
+        }
+    };
+
+    private final DetectorRuntime runtime;
+    private final DetectorMetrics metrics;
+    private final AttributeKey<FirstReadState> stateKey;
+    private final AttributeKey<Boolean> syntheticMark;
+    private final boolean synthesizeAllDirect;
+
+    /**
+     * namespace 为 channel 属性名前缀。synthesizeAllDirect 为 true 时，旧版 Ping、Geyser 与其它协议的直连也加上伪造头
+     * （服务端原生解码器位于 pipeline 最前面、会拒绝不带头的连接时使用），计数仍按首包类型。
+     */
+    public FirstPacketDecider(DetectorRuntime runtime, String namespace, boolean synthesizeAllDirect) {
+        this.runtime = runtime;
+        this.metrics = runtime.metrics();
+        this.stateKey = AttributeKey.valueOf(namespace + ".first-read");
+        this.syntheticMark = AttributeKey.valueOf(namespace + ".synthetic-proxy");
+        this.synthesizeAllDirect = synthesizeAllDirect;
+    }
+
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        if (metrics.sampleLatency()) {
+            ctx.channel().attr(stateKey).set(new FirstReadState(System.nanoTime()));
+        }
+        runtime.watchFirstPacket(ctx);
+    }
+
+    /**
+     * 把本次读到的数据与暂存的部分拼起来。首包类型尚不能判定，或是 PROXY 头但还没有收完时暂存并返回 null（buf 已被接管），
+     * 否则返回可以判定的首包，由调用方接管。PROXY 头最多攒到 16 + {@link ProxyProtocol#V2_MAX_LENGTH} 字节，
+     * 之后的校验、限流与头信息发布都基于完整的头；一直收不完的连接由首包超时关闭。
+     */
+    public ByteBuf accumulate(ChannelHandlerContext ctx, ByteBuf buf) {
+        Channel channel = ctx.channel();
+        FirstReadState state = state(channel);
+        ByteBuf held = state == null ? null : state.prefix();
+        if (held == null) {
+            return LocalChannels.isLocal(channel) ? buf : holdUntilComplete(ctx, state, buf);
+        }
+
+        if (held instanceof CompositeByteBuf composite) {
+            composite.addComponent(true, buf);
+            return holdUntilComplete(ctx, state, state.takePrefix());
+        }
+
+        int heldBytes = held.writerIndex();
+        held.writeBytes(buf, buf.readerIndex(), Math.min(buf.readableBytes(), held.writableBytes()));
+        if (FirstPacketClassifier.classify(held) == FirstPacketType.INCOMPLETE) {
+            buf.release();
+            return null;
+        }
+
+        held.writerIndex(heldBytes);
+        return holdUntilComplete(ctx, state, ctx.alloc().compositeBuffer().addComponents(true, state.takePrefix(), buf));
+    }
+
+    private ByteBuf holdUntilComplete(ChannelHandlerContext ctx, FirstReadState state, ByteBuf buf) {
+        FirstPacketType type = FirstPacketClassifier.classify(buf);
+        if (type != FirstPacketType.INCOMPLETE && (!type.isProxyHeader() || ProxyHeaderValidator.isComplete(buf, type))) {
+            return buf;
+        }
+
+        if (state == null) {
+            state = new FirstReadState(0);
+            ctx.channel().attr(stateKey).set(state);
+        }
+        if (type == FirstPacketType.INCOMPLETE) {
+            ByteBuf prefix = ctx.alloc().buffer(FirstPacketClassifier.MAX_PREFIX, FirstPacketClassifier.MAX_PREFIX);
+            prefix.writeBytes(buf);
+            state.prefix(prefix);
+            buf.release();
+        } else {
+            state.prefix(buf instanceof CompositeByteBuf ? buf : ctx.alloc().compositeBuffer().addComponent(true, buf));
+        }
+        return null;
+    }
+
+    /**
+     * 对 {@link #accumulate} 返回的完整首包做出判定并计数。返回 CLOSE 时首包已被释放。
+     */
+    public Action decide(ChannelHandlerContext ctx, ByteBuf first) {
+        Channel channel = ctx.channel();
+        FirstReadState state = state(channel);
+        long acceptNanos = state == null ? 0 : state.acceptNanos();
+        if (LocalChannels.isLocal(channel)) {
+            metrics.record(DetectorMetrics.Outcome.LOCAL, acceptNanos);
+            return Action.FORWARD;
+        }
+
+        FirstPacketType type = FirstPacketClassifier.classify(first);
+        SocketAddress remoteAddr = channel.remoteAddress();
+        DetectorPolicy policy = runtime.policy();
+        if (type.isProxyHeader()) {
+            if (consumeSyntheticMark(channel)) {
+                return Action.FORWARD;
+            }
+            return decideProxied(channel, policy, remoteAddr, type, first, acceptNanos);
+        }
+
+        if (type.isOtherProtocol() && policy.dropNonMinecraft()) {
+            metrics.record(DetectorMetrics.Outcome.REJECTED, acceptNanos);
+            first.release();
+            return Action.CLOSE;
+        }
+
+        DetectorMetrics.Outcome outcome = switch (type) {
+            case LEGACY_PING -> DetectorMetrics.Outcome.LEGACY_PING;
+            case GEYSER -> DetectorMetrics.Outcome.GEYSER;
+            default -> type.isOtherProtocol() ? DetectorMetrics.Outcome.OTHER_PROTOCOL : DetectorMetrics.Outcome.SYNTHETIC;
+        };
+        boolean synthesize = outcome == DetectorMetrics.Outcome.SYNTHETIC || synthesizeAllDirect;
+        if (synthesize && !(remoteAddr instanceof InetSocketAddress)) {
+            metrics.record(DetectorMetrics.Outcome.PASSTHROUGH, acceptNanos);
+            return Action.FORWARD;
+        }
+        metrics.record(outcome, acceptNanos);
+        return synthesize ? Action.SYNTHETIC : Action.FORWARD;
+    }
+
+    private Action decideProxied(Channel channel, DetectorPolicy policy, SocketAddress remoteAddr, FirstPacketType type,
+                                 ByteBuf first, long acceptNanos) {
+        InetAddress frps = remoteAddr instanceof InetSocketAddress inetAddr ? inetAddr.getAddress() : null;
+        if (policy.whitelistEnabled() && (frps == null || !policy.isWhitelisted(frps))) {
+            ProxyAddress client = BLOCKED_CLIENT.get();
+            client.parse(first);
+            runtime.blockLog().record(frps, client);
+            runtime.reportBlocked(frps);
+            metrics.record(DetectorMetrics.Outcome.BLOCKED, acceptNanos);
+            first.release();
+            return Action.CLOSE;
+        }
+
+        ProxyHeaderValidator.Reason malformed = ProxyHeaderValidator.validate(first, type);
+        if (malformed != null) {
+            metrics.recordMalformed(malformed, acceptNanos);
+            first.release();
+            return Action.CLOSE;
+        }
+
+        ClientConnectionLimiter clientLimiter = policy.clientLimiter();
+        if (clientLimiter != null && !clientLimiter.tryAcquire(channel, first)) {
+            metrics.record(DetectorMetrics.Outcome.CLIENT_LIMITED, acceptNanos);
+            first.release();
+            return Action.CLOSE;
+        }
+
+        if (type == FirstPacketType.PROXY_V2) {
+            ProxyHeaderInfo info = ProxyHeaderInfo.decodeV2(first);
+            if (info != null) {
+                channel.attr(ProxyHeaderInfo.ATTRIBUTE).set(info);
+            }
+        }
+        metrics.record(DetectorMetrics.Outcome.PROXIED, acceptNanos);
+        return Action.FORWARD;
+    }
+
+    /**
+     * SYNTHETIC 时先调用：开启 direct-proxy-message 且 pipeline 中有原生解码器时移除解码器并返回等价的 HAProxyMessage，
+     * handler 依次发送该消息与首包；否则返回 null，改用 {@link #syntheticHeader}。
+     */
+    public HAProxyMessage directMessage(ChannelHandlerContext ctx) {
+        if (!runtime.policy().directProxyMessage()) {
+            return null;
+        }
+        return SyntheticProxyHeader.replaceDecoder(ctx.pipeline(), (InetSocketAddress) ctx.channel().remoteAddress());
+    }
+
+    /**
+     * 返回带伪造 PROXY v2 头的首包（接管 first 的引用计数），并标记该连接，避免伪造头再被当成外部代理流量检查。
+     */
+    public ByteBuf syntheticHeader(ChannelHandlerContext ctx, ByteBuf first) {
+        ByteBuf combined = SyntheticProxyHeader.prepend(ctx.alloc(), (InetSocketAddress) ctx.channel().remoteAddress(),
+            first, runtime.policy().contiguousSyntheticHeader());
+        ctx.channel().attr(syntheticMark).set(Boolean.TRUE);
+        return combined;
+    }
+
+    /**
+     * handler 被移除时调用，返回仍暂存的前缀（调用方应交给下游），没有时返回 null。
+     */
+    public ByteBuf handlerRemoved(ChannelHandlerContext ctx) {
+        FirstReadState state = state(ctx.channel());
+        if (state == null) {
+            return null;
+        }
+        ctx.channel().attr(stateKey).set(null);
+        return state.takePrefix();
+    }
+
+    public void channelInactive(ChannelHandlerContext ctx) {
+        FirstReadState state = state(ctx.channel());
+        ByteBuf pending = state == null ? null : state.takePrefix();
+        if (pending != null) {
+            pending.release();
+        }
+    }
+
+    private FirstReadState state(Channel channel) {
+        return channel.hasAttr(stateKey) ? channel.attr(stateKey).get() : null;
+    }
+
+    private boolean consumeSyntheticMark(Channel channel) {
+        return channel.hasAttr(syntheticMark) && Boolean.TRUE.equals(channel.attr(syntheticMark).getAndSet(null));
+    }
+}
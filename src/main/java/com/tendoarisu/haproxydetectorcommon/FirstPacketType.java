@@ -0,0 +1,24 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+public enum FirstPacketType {
+    INCOMPLETE,
+    PROXY_V1,
+    PROXY_V2,
+    LEGACY_PING,
+    MINECRAFT,
+    GEYSER,
+    TLS,
+    HTTP,
+    SSH;
+
+    public boolean isProxyHeader() {
+        return this == PROXY_V1 || this == PROXY_V2;
+    }
+
+    /**
+     * 可以确定不是 Minecraft 的常见扫描协议。
+     */
+    public boolean isOtherProtocol() {
+        return this == TLS || this == HTTP || this == SSH;
+    }
+}
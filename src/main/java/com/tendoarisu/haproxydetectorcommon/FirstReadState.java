@@ -0,0 +1,37 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 共享检测 handler 的单连接状态，以 channel 属性的形式挂在连接上：建连时间，以及首包被拆分时暂存的前缀。
+ * 只在该连接的事件循环线程上读写。
+ */
+public final class FirstReadState {
+    private final long acceptNanos;
+    private ByteBuf prefix;
+
+    public FirstReadState(long acceptNanos) {
+        this.acceptNanos = acceptNanos;
+    }
+
+    public long acceptNanos() {
+        return acceptNanos;
+    }
+
+    public ByteBuf prefix() {
+        return prefix;
+    }
+
+    public void prefix(ByteBuf prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * 取出暂存的前缀并清空，调用方接管其引用计数。
+     */
+    public ByteBuf takePrefix() {
+        ByteBuf pending = prefix;
+        prefix = null;
+        return pending;
+    }
+}
@@ -0,0 +1,173 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.channel.ChannelFuture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+/**
+ * 从服务端实例出发，沿一条字段路径读取监听 channel 列表（List&lt;ChannelFuture&gt;）。
+ * 路径首次由反射扫描得到，按服务端版本缓存到数据目录，之后启动直接解析为 MethodHandle，不再扫描；
+ * 缓存失效（版本变化、字段不存在或读到的不是列表）时重新扫描并覆盖缓存。
+ */
+public final class ListenerLocator {
+    public static final String CACHE_FILE = "injection-cache.properties";
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * 反射扫描：返回从 root 到监听列表的字段路径，找不到时返回 null。
+     */
+    @FunctionalInterface
+    public interface Scanner {
+        List<Field> scan(Object root) throws Exception;
+    }
+
+    private final MethodHandle[] getters;
+    private final String path;
+
+    private ListenerLocator(List<Field> fields) throws IllegalAccessException {
+        this.getters = new MethodHandle[fields.size()];
+        StringJoiner joiner = new StringJoiner(",");
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            field.setAccessible(true);
+            getters[i] = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+            joiner.add(field.getDeclaringClass().getName() + "#" + field.getName());
+        }
+        this.path = joiner.toString();
+    }
+
+    /**
+     * 按缓存或扫描结果定位监听列表，找不到时返回 null。
+     */
+    public static ListenerLocator resolve(Path dataDirectory, String serverVersion, Object root, Scanner scanner,
+                                          Consumer<String> warningLog) throws Exception {
+        Path cacheFile = dataDirectory.resolve(CACHE_FILE);
+        ListenerLocator cached = loadCached(cacheFile, serverVersion, root);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<Field> fields = scanner.scan(root);
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        ListenerLocator located = new ListenerLocator(fields);
+        try {
+            located.store(cacheFile, serverVersion);
+        } catch (IOException e) {
+            warningLog.accept("无法写入 " + CACHE_FILE + "，下次启动将重新扫描: " + e.getMessage());
+        }
+        return located;
+    }
+
+    /**
+     * 当前的监听列表快照。列表由服务端在其它线程上修改，读取时遇到并发修改会返回空列表，由下次检查补上。
+     */
+    @SuppressWarnings("unchecked")
+    public List<ChannelFuture> channelFutures(Object root) {
+        Object list = read(root);
+        if (!(list instanceof List<?> futures)) {
+            return List.of();
+        }
+        try {
+            synchronized (futures) {
+                return new ArrayList<>((List<ChannelFuture>) futures);
+            }
+        } catch (ConcurrentModificationException e) {
+            return List.of();
+        }
+    }
+
+    private Object read(Object root) {
+        Object current = root;
+        try {
+            for (MethodHandle getter : getters) {
+                if (current == null) {
+                    return null;
+                }
+                current = (Object) getter.invokeExact(current);
+            }
+        } catch (Throwable e) {
+            return null;
+        }
+        return current;
+    }
+
+    private static ListenerLocator loadCached(Path cacheFile, String serverVersion, Object root) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+
+        try (InputStream in = Files.newInputStream(cacheFile)) {
+            Properties properties = new Properties();
+            properties.load(in);
+            String path = properties.getProperty("path");
+            if (!serverVersion.equals(properties.getProperty("version")) || path == null || path.isEmpty()) {
+                return null;
+            }
+
+            ClassLoader loader = root.getClass().getClassLoader();
+            List<Field> fields = new ArrayList<>();
+            for (String step : path.split(",")) {
+                int separator = step.indexOf('#');
+                Class<?> owner = Class.forName(step.substring(0, separator), false, loader);
+                fields.add(owner.getDeclaredField(step.substring(separator + 1)));
+            }
+            ListenerLocator located = new ListenerLocator(fields);
+            return located.read(root) instanceof List<?> ? located : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void store(Path cacheFile, String serverVersion) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("version", serverVersion);
+        properties.setProperty("path", path);
+        Files.createDirectories(cacheFile.getParent());
+        Path temp = cacheFile.resolveSibling(CACHE_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "HAProxyDetector listener field path");
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 字段是否声明为 List&lt;ChannelFuture&gt;，或者当前已经装着 ChannelFuture。监听尚未绑定时列表为空，只能靠泛型签名识别。
+     */
+    public static boolean isChannelFutureList(Field field, Object value) {
+        if (!(value instanceof List<?> list)) {
+            return false;
+        }
+        if (!list.isEmpty()) {
+            return list.get(0) instanceof ChannelFuture;
+        }
+        Type type = field.getGenericType();
+        return type instanceof ParameterizedType parameterized
+            && parameterized.getActualTypeArguments().length == 1
+            && parameterized.getActualTypeArguments()[0] == ChannelFuture.class;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
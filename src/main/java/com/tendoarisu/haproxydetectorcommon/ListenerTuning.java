@@ -0,0 +1,126 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelOption;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对已经绑定的监听 channel 按需调整内核 socket 参数，并给出所用传输（NIO / epoll / io_uring）的启动摘要。
+ * TCP_DEFER_ACCEPT 只在传输的 ChannelConfig 声明支持时通过 setOption 设置；TCP_FASTOPEN 与 backlog 在 netty 中只在绑定时生效，
+ * 绑定后只能直接作用于 epoll 的原生 socket（Linux 允许对监听中的 socket 再次 listen 以修改 backlog），其它传输跳过。
+ * 不在编译期引用 epoll 类，服务端没有带原生传输时也能正常加载。
+ */
+public final class ListenerTuning {
+    private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+    private static final String DEFER_ACCEPT_OPTION = "TCP_DEFER_ACCEPT";
+    private static final String SOCKET_FIELD = "socket";
+
+    private ListenerTuning() {
+    }
+
+    public static String transport(Channel channel) {
+        String name = channel.getClass().getName();
+        if (name.startsWith(EPOLL_PACKAGE)) {
+            return "epoll";
+        }
+        if (name.startsWith("io.netty.incubator.channel.uring.") || name.startsWith("io.netty.channel.uring.")) {
+            return "io_uring";
+        }
+        if (name.startsWith("io.netty.channel.kqueue.")) {
+            return "kqueue";
+        }
+        if (name.startsWith("io.netty.channel.socket.nio.")) {
+            return "NIO";
+        }
+        return channel.getClass().getSimpleName();
+    }
+
+    /**
+     * 按配置调整监听 socket，返回一行摘要：监听地址、传输以及每个开启的参数是否生效。三个参数都为 0 时只报告传输。
+     */
+    public static String apply(Channel serverChannel, DetectorSettings settings) {
+        String transport = transport(serverChannel);
+        boolean epoll = serverChannel.getClass().getName().startsWith(EPOLL_PACKAGE);
+        List<String> results = new ArrayList<>();
+        if (settings.tcpDeferAccept() > 0) {
+            results.add(deferAccept(serverChannel.config(), settings.tcpDeferAccept()));
+        }
+        if (settings.tcpFastopen() > 0) {
+            results.add(epoll
+                ? nativeSocket(serverChannel, "TCP_FASTOPEN", "setTcpFastOpen", ChannelOption.TCP_FASTOPEN, settings.tcpFastopen())
+                : "TCP_FASTOPEN 跳过（" + transport + " 不支持在绑定后设置）");
+        }
+        if (settings.listenBacklog() > 0) {
+            results.add(epoll
+                ? nativeSocket(serverChannel, "backlog", "listen", ChannelOption.SO_BACKLOG, settings.listenBacklog())
+                : "backlog 跳过（" + transport + " 不支持在绑定后设置）");
+        }
+
+        String summary = "监听 " + serverChannel.localAddress() + " 使用 " + transport + " 传输";
+        return results.isEmpty() ? summary : summary + "：" + String.join("，", results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String deferAccept(ChannelConfig config, int seconds) {
+        for (ChannelOption<?> option : config.getOptions().keySet()) {
+            String name = option.name();
+            if (name.equals(DEFER_ACCEPT_OPTION) || name.endsWith("#" + DEFER_ACCEPT_OPTION)) {
+                try {
+                    if (config.setOption((ChannelOption<Integer>) option, seconds)) {
+                        return DEFER_ACCEPT_OPTION + "=" + seconds + "s";
+                    }
+                } catch (RuntimeException e) {
+                    return DEFER_ACCEPT_OPTION + " 设置失败（" + e.getMessage() + "）";
+                }
+            }
+        }
+        return DEFER_ACCEPT_OPTION + " 跳过（当前传输不支持）";
+    }
+
+    /**
+     * 调用 epoll channel 原生 socket 上的 setter，成功后同步写入 ChannelConfig，使其它代码读到的值与实际一致。
+     */
+    private static String nativeSocket(Channel channel, String label, String methodName, ChannelOption<Integer> option, int value) {
+        try {
+            Object socket = findField(channel.getClass(), SOCKET_FIELD).get(channel);
+            Method method = findMethod(socket.getClass(), methodName);
+            method.invoke(socket, value);
+            channel.config().setOption(option, value);
+            return label + "=" + value;
+        } catch (InvocationTargetException e) {
+            return label + " 设置失败（" + e.getCause().getMessage() + "）";
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return label + " 跳过（找不到原生 socket）";
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) throws NoSuchFieldException {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    private static Method findMethod(Class<?> type, String name) throws NoSuchMethodException {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                Method method = current.getDeclaredMethod(name, int.class);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+}
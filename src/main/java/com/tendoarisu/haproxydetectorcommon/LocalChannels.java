@@ -0,0 +1,31 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.channel.Channel;
+import io.netty.channel.local.LocalAddress;
+
+import java.net.SocketAddress;
+
+/**
+ * 判断连接是否来自服务端内部（LocalChannel / EmbeddedChannel 或 local 地址），这类连接不经过 frps，直接放行。
+ * 按 channel 类名的判定结果用 ClassValue 缓存，每个类只计算一次。
+ */
+public final class LocalChannels {
+    private static final ClassValue<Boolean> LOCAL_TYPES = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            String className = type.getName();
+            return className.contains("LocalChannel") || className.contains("EmbeddedChannel");
+        }
+    };
+
+    private LocalChannels() {
+    }
+
+    public static boolean isLocal(Channel channel) {
+        if (LOCAL_TYPES.get(channel.getClass())) {
+            return true;
+        }
+        SocketAddress remoteAddress = channel.remoteAddress();
+        return remoteAddress == null || remoteAddress instanceof LocalAddress;
+    }
+}
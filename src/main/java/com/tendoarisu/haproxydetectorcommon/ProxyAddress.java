@@ -0,0 +1,391 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * PROXY v1 / v2 头中的源、目标地址与端口。直接在 ByteBuf 上按字节解析，不经过 String、正则或 InetAddress；
+ * 地址的存放方式与 {@link ProxyHeaderInfo} 相同（两个 long，IPv4 只使用低 long 的低 32 位），family 取 ProxyHeaderInfo.FAMILY_*。
+ * 实例可以反复 {@link #parse(ByteBuf)} 复用，文本只在 {@link #sourceText()} 等方法被调用时才生成，
+ * 因此按客户端地址判断的策略可以在 I/O 线程上运行而不产生垃圾，格式化留到真正输出日志的时候。
+ */
+public final class ProxyAddress {
+    private static final int IPV6_GROUPS = 8;
+    private static final long V4_MAPPED_PREFIX = 0xFFFFL;
+
+    private int family;
+    private long sourceHigh;
+    private long sourceLow;
+    private long destinationHigh;
+    private long destinationLow;
+    private int sourcePort;
+    private int destinationPort;
+
+    private int position;
+    private long parsedHigh;
+    private long parsedLow;
+
+    /**
+     * 从 readerIndex 处解析 PROXY v1 或 v2 头中的地址，不移动读写索引。头不完整、格式不对、
+     * 不携带 TCP/UDP 地址（v1 UNKNOWN、v2 LOCAL 命令或 UNIX 地址）时返回 false，family 置为 FAMILY_UNSPEC。
+     */
+    public boolean parse(ByteBuf buf) {
+        clear();
+        int readerIndex = buf.readerIndex();
+        int readableBytes = buf.readableBytes();
+        boolean parsed = false;
+        if (readableBytes >= ProxyProtocol.V2_HEADER_LENGTH && ProxyProtocol.isV2Signature(buf, readerIndex)) {
+            parsed = parseV2(buf, readerIndex, readableBytes);
+        } else if (readableBytes >= ProxyProtocol.V1_SIG_LENGTH && ProxyProtocol.isV1Signature(buf, readerIndex)) {
+            parsed = parseV1(buf, readerIndex + ProxyProtocol.V1_SIG_LENGTH,
+                readerIndex + Math.min(readableBytes, ProxyProtocol.V1_MAX_LENGTH));
+        }
+        if (!parsed) {
+            clear();
+        }
+        return parsed;
+    }
+
+    public void clear() {
+        family = ProxyHeaderInfo.FAMILY_UNSPEC;
+        sourceHigh = 0;
+        sourceLow = 0;
+        destinationHigh = 0;
+        destinationLow = 0;
+        sourcePort = 0;
+        destinationPort = 0;
+    }
+
+    private boolean parseV2(ByteBuf buf, int readerIndex, int readableBytes) {
+        int versionCommand = buf.getUnsignedByte(readerIndex + 12);
+        if (versionCommand != ((0x2 << 4) | ProxyHeaderInfo.COMMAND_PROXY)) {
+            return false;
+        }
+
+        int headerLength = buf.getUnsignedShort(readerIndex + 14);
+        if (readableBytes < ProxyProtocol.V2_HEADER_LENGTH + headerLength) {
+            return false;
+        }
+
+        int offset = readerIndex + ProxyProtocol.V2_HEADER_LENGTH;
+        int addressFamily = buf.getUnsignedByte(readerIndex + 13) >> 4;
+        if (addressFamily == ProxyHeaderInfo.FAMILY_INET && headerLength >= 12) {
+            sourceLow = buf.getUnsignedInt(offset);
+            destinationLow = buf.getUnsignedInt(offset + 4);
+            sourcePort = buf.getUnsignedShort(offset + 8);
+            destinationPort = buf.getUnsignedShort(offset + 10);
+        } else if (addressFamily == ProxyHeaderInfo.FAMILY_INET6 && headerLength >= 36) {
+            sourceHigh = buf.getLong(offset);
+            sourceLow = buf.getLong(offset + 8);
+            destinationHigh = buf.getLong(offset + 16);
+            destinationLow = buf.getLong(offset + 24);
+            sourcePort = buf.getUnsignedShort(offset + 32);
+            destinationPort = buf.getUnsignedShort(offset + 34);
+        } else {
+            return false;
+        }
+        family = addressFamily;
+        return true;
+    }
+
+    /**
+     * "TCP4 src dst sport dport\r\n" 或 "TCP6 ..."，各字段之间恰好一个空格，end 为本次可读的最远位置（不超过 v1 规定的 107 字节）。
+     */
+    private boolean parseV1(ByteBuf buf, int start, int end) {
+        if (end - start < 5 || (buf.getInt(start) & 0xFFFFFF00) != ProxyProtocol.V1_TCP || buf.getByte(start + 4) != ' ') {
+            return false;
+        }
+
+        position = start + 5;
+        boolean ipv6;
+        switch (buf.getByte(start + 3)) {
+            case '4' -> ipv6 = false;
+            case '6' -> ipv6 = true;
+            default -> {
+                return false;
+            }
+        }
+
+        if (!parseAddress(buf, end, ipv6) || !expect(buf, end, ' ')) {
+            return false;
+        }
+        long parsedSourceHigh = parsedHigh;
+        long parsedSourceLow = parsedLow;
+        if (!parseAddress(buf, end, ipv6) || !expect(buf, end, ' ')) {
+            return false;
+        }
+
+        int parsedSourcePort = parsePort(buf, end);
+        if (parsedSourcePort < 0 || !expect(buf, end, ' ')) {
+            return false;
+        }
+        int parsedDestinationPort = parsePort(buf, end);
+        if (parsedDestinationPort < 0 || !expect(buf, end, '\r') || !expect(buf, end, '\n')) {
+            return false;
+        }
+
+        family = ipv6 ? ProxyHeaderInfo.FAMILY_INET6 : ProxyHeaderInfo.FAMILY_INET;
+        sourceHigh = parsedSourceHigh;
+        sourceLow = parsedSourceLow;
+        destinationHigh = parsedHigh;
+        destinationLow = parsedLow;
+        sourcePort = parsedSourcePort;
+        destinationPort = parsedDestinationPort;
+        return true;
+    }
+
+    private boolean parseAddress(ByteBuf buf, int end, boolean ipv6) {
+        parsedHigh = 0;
+        parsedLow = 0;
+        return ipv6 ? parseIpv6(buf, end) : parseIpv4(buf, end);
+    }
+
+    private boolean parseIpv4(ByteBuf buf, int end) {
+        long address = 0;
+        for (int octet = 0; octet < 4; octet++) {
+            if (octet > 0 && !expect(buf, end, '.')) {
+                return false;
+            }
+            int value = parseDecimal(buf, end, 3);
+            if (value < 0 || value > 255) {
+                return false;
+            }
+            address = (address << 8) | value;
+        }
+        parsedLow = address;
+        return true;
+    }
+
+    /**
+     * 十六进制分组，支持一处 "::" 压缩和末尾内嵌的点分 IPv4。"::" 之前与之后的分组分别累加，最后把前半段左移到位再合并。
+     */
+    private boolean parseIpv6(ByteBuf buf, int end) {
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int headCount = 0;
+        int tailCount = 0;
+        boolean compressed = false;
+
+        int index = position;
+        if (index + 1 < end && buf.getByte(index) == ':') {
+            if (buf.getByte(index + 1) != ':') {
+                return false;
+            }
+            compressed = true;
+            index += 2;
+        }
+
+        while (index < end && buf.getByte(index) != ' ') {
+            int groupStart = index;
+            int group = 0;
+            int digits = 0;
+            int digit;
+            while (index < end && digits < 4 && (digit = Character.digit(buf.getByte(index), 16)) >= 0) {
+                group = (group << 4) | digit;
+                digits++;
+                index++;
+            }
+            if (digits == 0) {
+                return false;
+            }
+
+            int groups = 1;
+            if (index < end && buf.getByte(index) == '.') {
+                position = groupStart;
+                if (!parseIpv4(buf, end)) {
+                    return false;
+                }
+                index = position;
+                groups = 2;
+            }
+
+            for (int i = groups - 1; i >= 0; i--) {
+                int value = groups == 2 ? (int) (parsedLow >>> (i * 16)) & 0xFFFF : group;
+                if (compressed) {
+                    tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                    tailLow = (tailLow << 16) | value;
+                    tailCount++;
+                } else {
+                    headHigh = (headHigh << 16) | (headLow >>> 48);
+                    headLow = (headLow << 16) | value;
+                    headCount++;
+                }
+            }
+            if (groups == 2 || headCount + tailCount > IPV6_GROUPS) {
+                break;
+            }
+
+            if (index >= end || buf.getByte(index) != ':') {
+                break;
+            }
+            index++;
+            if (index < end && buf.getByte(index) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                index++;
+            } else if (index >= end || buf.getByte(index) == ' ') {
+                return false;
+            }
+        }
+
+        int count = headCount + tailCount;
+        if (compressed ? count >= IPV6_GROUPS : count != IPV6_GROUPS) {
+            return false;
+        }
+
+        int shift = (IPV6_GROUPS - headCount) * 16;
+        if (shift >= 128) {
+            headHigh = 0;
+            headLow = 0;
+        } else if (shift >= 64) {
+            headHigh = headLow << (shift - 64);
+            headLow = 0;
+        } else if (shift > 0) {
+            headHigh = (headHigh << shift) | (headLow >>> (64 - shift));
+            headLow <<= shift;
+        }
+        parsedHigh = headHigh | tailHigh;
+        parsedLow = headLow | tailLow;
+        position = index;
+        return true;
+    }
+
+    private int parsePort(ByteBuf buf, int end) {
+        int port = parseDecimal(buf, end, 5);
+        return port > 65535 ? -1 : port;
+    }
+
+    private int parseDecimal(ByteBuf buf, int end, int maxDigits) {
+        int value = 0;
+        int digits = 0;
+        while (position < end && digits < maxDigits) {
+            int digit = buf.getByte(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            digits++;
+            position++;
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    private boolean expect(ByteBuf buf, int end, char expected) {
+        if (position < end && buf.getByte(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    public int family() {
+        return family;
+    }
+
+    public boolean hasAddress() {
+        return family != ProxyHeaderInfo.FAMILY_UNSPEC;
+    }
+
+    public long sourceHigh() {
+        return sourceHigh;
+    }
+
+    public long sourceLow() {
+        return sourceLow;
+    }
+
+    public long destinationHigh() {
+        return destinationHigh;
+    }
+
+    public long destinationLow() {
+        return destinationLow;
+    }
+
+    public int sourcePort() {
+        return sourcePort;
+    }
+
+    public int destinationPort() {
+        return destinationPort;
+    }
+
+    public String sourceText() {
+        return format(family, sourceHigh, sourceLow);
+    }
+
+    public String destinationText() {
+        return format(family, destinationHigh, destinationLow);
+    }
+
+    /**
+     * 把打包的地址格式化为文本：IPv4 为点分十进制，IPv6 按 RFC 5952 用小写并压缩最长的一段全零分组，
+     * IPv4 映射地址按该 RFC 第 5 节写成 "::ffff:1.2.3.4"，family 不是 INET / INET6 时返回 "unknown"。
+     */
+    public static String format(int family, long high, long low) {
+        if (family == ProxyHeaderInfo.FAMILY_INET) {
+            return dotted(low);
+        }
+        if (family != ProxyHeaderInfo.FAMILY_INET6) {
+            return "unknown";
+        }
+        if (high == 0 && (low >>> 32) == V4_MAPPED_PREFIX) {
+            return "::ffff:" + dotted(low);
+        }
+
+        int bestStart = -1;
+        int bestLength = 1;
+        int runStart = -1;
+        for (int i = 0; i <= IPV6_GROUPS; i++) {
+            if (i < IPV6_GROUPS && group(high, low, i) == 0) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+            } else if (runStart >= 0) {
+                if (i - runStart > bestLength) {
+                    bestStart = runStart;
+                    bestLength = i - runStart;
+                }
+                runStart = -1;
+            }
+        }
+
+        StringBuilder text = new StringBuilder(39);
+        for (int i = 0; i < IPV6_GROUPS; i++) {
+            if (i == bestStart) {
+                text.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (i > 0 && i != bestStart + bestLength) {
+                text.append(':');
+            }
+            text.append(Integer.toHexString(group(high, low, i)));
+        }
+        return text.toString();
+    }
+
+    private static String dotted(long address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    private static int group(long high, long low, int index) {
+        long half = index < 4 ? high : low;
+        return (int) (half >>> ((3 - (index & 3)) * 16)) & 0xFFFF;
+    }
+
+    @Override
+    public String toString() {
+        if (!hasAddress()) {
+            return "unknown";
+        }
+        return endpoint(sourceText(), sourcePort) + " -> " + endpoint(destinationText(), destinationPort);
+    }
+
+    private String endpoint(String address, int port) {
+        return family == ProxyHeaderInfo.FAMILY_INET6 ? "[" + address + "]:" + port : address + ":" + port;
+    }
+}
@@ -0,0 +1,360 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AttributeKey;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 真实 PROXY 头的解析结果，首包放行时解析一次并挂在 channel 属性上，其它插件可直接读取，无需再次解析。
+ * 地址以两个 long 存放（IPv4 只使用 sourceLow / destinationLow 的低 32 位），TLV 区域仅在存在时拷贝一次，按需解码。
+ */
+public final class ProxyHeaderInfo {
+    public static final AttributeKey<ProxyHeaderInfo> ATTRIBUTE = AttributeKey.valueOf("haproxydetector.proxy-header");
+
+    public static final int COMMAND_LOCAL = 0x0;
+    public static final int COMMAND_PROXY = 0x1;
+
+    public static final int FAMILY_UNSPEC = 0x0;
+    public static final int FAMILY_INET = 0x1;
+    public static final int FAMILY_INET6 = 0x2;
+    public static final int FAMILY_UNIX = 0x3;
+
+    public static final int PP2_TYPE_ALPN = 0x01;
+    public static final int PP2_TYPE_AUTHORITY = 0x02;
+    public static final int PP2_TYPE_CRC32C = 0x03;
+    public static final int PP2_TYPE_NOOP = 0x04;
+    public static final int PP2_TYPE_UNIQUE_ID = 0x05;
+    public static final int PP2_TYPE_SSL = 0x20;
+    public static final int PP2_SUBTYPE_SSL_VERSION = 0x21;
+    public static final int PP2_SUBTYPE_SSL_CN = 0x22;
+    public static final int PP2_SUBTYPE_SSL_CIPHER = 0x23;
+    public static final int PP2_SUBTYPE_SSL_SIG_ALG = 0x24;
+    public static final int PP2_SUBTYPE_SSL_KEY_ALG = 0x25;
+    public static final int PP2_TYPE_NETNS = 0x30;
+    public static final int PP2_TYPE_MIN_CUSTOM = 0xE0;
+    public static final int PP2_TYPE_MAX_CUSTOM = 0xEF;
+
+    private static final int SSL_HEADER_LENGTH = 5;
+
+    private final int version;
+    private final int command;
+    private final int family;
+    private final int protocol;
+    private final long sourceHigh;
+    private final long sourceLow;
+    private final long destinationHigh;
+    private final long destinationLow;
+    private final int sourcePort;
+    private final int destinationPort;
+    private final byte[] tlvs;
+
+    private ProxyHeaderInfo(int version, int command, int family, int protocol,
+                            long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                            int sourcePort, int destinationPort, byte[] tlvs) {
+        this.version = version;
+        this.command = command;
+        this.family = family;
+        this.protocol = protocol;
+        this.sourceHigh = sourceHigh;
+        this.sourceLow = sourceLow;
+        this.destinationHigh = destinationHigh;
+        this.destinationLow = destinationLow;
+        this.sourcePort = sourcePort;
+        this.destinationPort = destinationPort;
+        this.tlvs = tlvs;
+    }
+
+    /**
+     * 从 readerIndex 处解析完整的 PROXY v2 头，不移动读写索引。头不完整或格式不对时返回 null。
+     */
+    public static ProxyHeaderInfo decodeV2(ByteBuf buf) {
+        int readerIndex = buf.readerIndex();
+        int readableBytes = buf.readableBytes();
+        if (readableBytes < ProxyProtocol.V2_HEADER_LENGTH || !ProxyProtocol.isV2Signature(buf, readerIndex)) {
+            return null;
+        }
+
+        int versionCommand = buf.getUnsignedByte(readerIndex + 12);
+        if ((versionCommand >> 4) != 0x2) {
+            return null;
+        }
+
+        int familyProtocol = buf.getUnsignedByte(readerIndex + 13);
+        int headerLength = buf.getUnsignedShort(readerIndex + 14);
+        if (readableBytes < ProxyProtocol.V2_HEADER_LENGTH + headerLength) {
+            return null;
+        }
+
+        int family = familyProtocol >> 4;
+        int addressLength;
+        long sourceHigh = 0;
+        long sourceLow = 0;
+        long destinationHigh = 0;
+        long destinationLow = 0;
+        int sourcePort = 0;
+        int destinationPort = 0;
+        int offset = readerIndex + ProxyProtocol.V2_HEADER_LENGTH;
+
+        switch (family) {
+            case FAMILY_INET -> {
+                addressLength = 12;
+                if (headerLength < addressLength) {
+                    return null;
+                }
+                sourceLow = buf.getUnsignedInt(offset);
+                destinationLow = buf.getUnsignedInt(offset + 4);
+                sourcePort = buf.getUnsignedShort(offset + 8);
+                destinationPort = buf.getUnsignedShort(offset + 10);
+            }
+            case FAMILY_INET6 -> {
+                addressLength = 36;
+                if (headerLength < addressLength) {
+                    return null;
+                }
+                sourceHigh = buf.getLong(offset);
+                sourceLow = buf.getLong(offset + 8);
+                destinationHigh = buf.getLong(offset + 16);
+                destinationLow = buf.getLong(offset + 24);
+                sourcePort = buf.getUnsignedShort(offset + 32);
+                destinationPort = buf.getUnsignedShort(offset + 34);
+            }
+            case FAMILY_UNIX -> {
+                addressLength = 216;
+                if (headerLength < addressLength) {
+                    return null;
+                }
+            }
+            default -> addressLength = 0;
+        }
+
+        byte[] tlvs = null;
+        int tlvLength = headerLength - addressLength;
+        if (tlvLength > 0) {
+            if (!validTlvs(buf, offset + addressLength, tlvLength)) {
+                return null;
+            }
+            tlvs = new byte[tlvLength];
+            buf.getBytes(offset + addressLength, tlvs);
+        }
+
+        return new ProxyHeaderInfo(2, versionCommand & 0x0F, family, familyProtocol & 0x0F,
+            sourceHigh, sourceLow, destinationHigh, destinationLow, sourcePort, destinationPort, tlvs);
+    }
+
+    static boolean validTlvs(ByteBuf buf, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (end - offset < 3) {
+                return false;
+            }
+            offset += 3 + buf.getUnsignedShort(offset + 1);
+        }
+        return offset == end;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public int command() {
+        return command;
+    }
+
+    public int family() {
+        return family;
+    }
+
+    public int protocol() {
+        return protocol;
+    }
+
+    public long sourceHigh() {
+        return sourceHigh;
+    }
+
+    public long sourceLow() {
+        return sourceLow;
+    }
+
+    public long destinationHigh() {
+        return destinationHigh;
+    }
+
+    public long destinationLow() {
+        return destinationLow;
+    }
+
+    public int sourcePort() {
+        return sourcePort;
+    }
+
+    public int destinationPort() {
+        return destinationPort;
+    }
+
+    public InetAddress sourceAddress() {
+        return toInetAddress(sourceHigh, sourceLow);
+    }
+
+    public InetAddress destinationAddress() {
+        return toInetAddress(destinationHigh, destinationLow);
+    }
+
+    public boolean hasTlvs() {
+        return tlvs != null;
+    }
+
+    public boolean hasTlv(int type) {
+        return findTlv(tlvs, 0, tlvs == null ? 0 : tlvs.length, type) >= 0;
+    }
+
+    /**
+     * 返回第一个指定类型 TLV 的值拷贝，不存在时返回 null。
+     */
+    public byte[] tlv(int type) {
+        return copyValue(tlvs, findTlv(tlvs, 0, tlvs == null ? 0 : tlvs.length, type));
+    }
+
+    public String authority() {
+        return utf8(tlvs, findTlv(tlvs, 0, tlvs == null ? 0 : tlvs.length, PP2_TYPE_AUTHORITY));
+    }
+
+    public byte[] uniqueId() {
+        return tlv(PP2_TYPE_UNIQUE_ID);
+    }
+
+    public String alpn() {
+        return utf8(tlvs, findTlv(tlvs, 0, tlvs == null ? 0 : tlvs.length, PP2_TYPE_ALPN));
+    }
+
+    public String netns() {
+        return utf8(tlvs, findTlv(tlvs, 0, tlvs == null ? 0 : tlvs.length, PP2_TYPE_NETNS));
+    }
+
+    public boolean hasSsl() {
+        return sslOffset() >= 0;
+    }
+
+    /**
+     * PP2_TYPE_SSL 的 client 位字段，不存在 SSL TLV 时返回 -1。
+     */
+    public int sslClient() {
+        int position = sslOffset();
+        return position < 0 ? -1 : tlvs[position + 3] & 0xFF;
+    }
+
+    /**
+     * PP2_TYPE_SSL 的 verify 字段，0 表示客户端证书校验通过，不存在 SSL TLV 时返回 -1。
+     */
+    public long sslVerify() {
+        int position = sslOffset();
+        if (position < 0) {
+            return -1;
+        }
+        int start = position + 4;
+        return ((tlvs[start] & 0xFFL) << 24) | ((tlvs[start + 1] & 0xFFL) << 16)
+            | ((tlvs[start + 2] & 0xFFL) << 8) | (tlvs[start + 3] & 0xFFL);
+    }
+
+    public String sslVersion() {
+        return utf8(tlvs, sslSubTlv(PP2_SUBTYPE_SSL_VERSION));
+    }
+
+    public String sslCommonName() {
+        return utf8(tlvs, sslSubTlv(PP2_SUBTYPE_SSL_CN));
+    }
+
+    public String sslCipher() {
+        return utf8(tlvs, sslSubTlv(PP2_SUBTYPE_SSL_CIPHER));
+    }
+
+    public String sslSignatureAlgorithm() {
+        return utf8(tlvs, sslSubTlv(PP2_SUBTYPE_SSL_SIG_ALG));
+    }
+
+    public String sslKeyAlgorithm() {
+        return utf8(tlvs, sslSubTlv(PP2_SUBTYPE_SSL_KEY_ALG));
+    }
+
+    private int sslOffset() {
+        int position = findTlv(tlvs, 0, tlvs == null ? 0 : tlvs.length, PP2_TYPE_SSL);
+        if (position < 0 || valueLength(tlvs, position) < SSL_HEADER_LENGTH) {
+            return -1;
+        }
+        return position;
+    }
+
+    private int sslSubTlv(int subtype) {
+        int position = sslOffset();
+        if (position < 0) {
+            return -1;
+        }
+        int start = position + 3 + SSL_HEADER_LENGTH;
+        int end = position + 3 + valueLength(tlvs, position);
+        return findTlv(tlvs, start, end, subtype);
+    }
+
+    private static int findTlv(byte[] data, int start, int end, int type) {
+        if (data == null) {
+            return -1;
+        }
+        int position = start;
+        while (end - position >= 3) {
+            int length = valueLength(data, position);
+            if (position + 3 + length > end) {
+                return -1;
+            }
+            if ((data[position] & 0xFF) == type) {
+                return position;
+            }
+            position += 3 + length;
+        }
+        return -1;
+    }
+
+    private static int valueLength(byte[] data, int position) {
+        return ((data[position + 1] & 0xFF) << 8) | (data[position + 2] & 0xFF);
+    }
+
+    private static byte[] copyValue(byte[] data, int position) {
+        if (position < 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(data, position + 3, position + 3 + valueLength(data, position));
+    }
+
+    private static String utf8(byte[] data, int position) {
+        if (position < 0) {
+            return null;
+        }
+        return new String(data, position + 3, valueLength(data, position), StandardCharsets.UTF_8);
+    }
+
+    private InetAddress toInetAddress(long high, long low) {
+        byte[] bytes;
+        if (family == FAMILY_INET) {
+            bytes = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                bytes[i] = (byte) (low >>> (24 - i * 8));
+            }
+        } else if (family == FAMILY_INET6) {
+            bytes = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (high >>> (56 - i * 8));
+                bytes[i + 8] = (byte) (low >>> (56 - i * 8));
+            }
+        } else {
+            return null;
+        }
+
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
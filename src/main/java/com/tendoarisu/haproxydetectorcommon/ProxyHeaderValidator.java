@@ -0,0 +1,188 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 真实 PROXY 头交给服务端原生解码器之前的结构检查，只读字节、不分配对象，发现格式错误时返回原因，由 handler 直接关闭连接。
+ * 调用方应先用 {@link #isComplete} 攒齐整个头再校验；缓冲区里的头不完整（v2 不足固定头或声明长度、v1 没有行尾）同样视为格式错误，
+ * 不会未经检查放行。v1 不逐个解析地址，只核对行长、行尾、协议字段与字符集。
+ */
+public final class ProxyHeaderValidator {
+    private static final long V1_UNKNOWN = 0x554E4B4E4F574EL;
+    private static final int V1_FIELDS = 4;
+    private static final int V2_TRANSPORT_DGRAM = 0x2;
+
+    public enum Reason {
+        V1_TOO_LONG("v1_too_long", "v1 行超过 107 字节"),
+        V1_BAD_LINE_END("v1_bad_line_end", "v1 行尾不是 CRLF"),
+        V1_BAD_PROTOCOL("v1_bad_protocol", "v1 协议字段无效"),
+        V1_BAD_FIELDS("v1_bad_fields", "v1 地址或端口格式错误"),
+        V2_BAD_VERSION("v2_bad_version", "v2 版本无效"),
+        V2_BAD_COMMAND("v2_bad_command", "v2 命令无效"),
+        V2_BAD_FAMILY("v2_bad_family", "v2 地址族或传输协议无效"),
+        V2_BAD_LENGTH("v2_bad_length", "v2 声明长度不合理"),
+        V2_BAD_TLV("v2_bad_tlv", "v2 TLV 结构错误");
+
+        private final String label;
+        private final String displayName;
+
+        Reason(String label, String displayName) {
+            this.label = label;
+            this.displayName = displayName;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public String displayName() {
+            return displayName;
+        }
+    }
+
+    private ProxyHeaderValidator() {
+    }
+
+    /**
+     * readerIndex 处的 PROXY 头是否已经收完，可以交给 {@link #validate} 判定：v2 收到固定头与声明的全部长度，v1 收到行尾 LF。
+     * 声明长度超过 {@link ProxyProtocol#V2_MAX_LENGTH} 或 v1 已到行长上限仍没有 LF 时同样返回 true，让校验直接拒绝，不为其继续攒数据。
+     */
+    public static boolean isComplete(ByteBuf buf, FirstPacketType type) {
+        int readerIndex = buf.readerIndex();
+        int readableBytes = buf.readableBytes();
+        if (type == FirstPacketType.PROXY_V2) {
+            if (readableBytes < ProxyProtocol.V2_HEADER_LENGTH) {
+                return false;
+            }
+            int headerLength = buf.getUnsignedShort(readerIndex + 14);
+            return headerLength > ProxyProtocol.V2_MAX_LENGTH
+                || readableBytes >= ProxyProtocol.V2_HEADER_LENGTH + headerLength;
+        }
+        if (type == FirstPacketType.PROXY_V1) {
+            if (readableBytes >= ProxyProtocol.V1_MAX_LENGTH) {
+                return true;
+            }
+            return buf.indexOf(readerIndex + ProxyProtocol.V1_SIG_LENGTH, readerIndex + readableBytes, (byte) '\n') >= 0;
+        }
+        return true;
+    }
+
+    /**
+     * 检查 readerIndex 处已被分类为 PROXY v1 / v2 的完整头，不移动读写索引。格式正确时返回 null。
+     */
+    public static Reason validate(ByteBuf buf, FirstPacketType type) {
+        int readerIndex = buf.readerIndex();
+        int readableBytes = buf.readableBytes();
+        if (type == FirstPacketType.PROXY_V2) {
+            return validateV2(buf, readerIndex, readableBytes);
+        }
+        if (type == FirstPacketType.PROXY_V1) {
+            return validateV1(buf, readerIndex, readableBytes);
+        }
+        return null;
+    }
+
+    private static Reason validateV2(ByteBuf buf, int readerIndex, int readableBytes) {
+        if (readableBytes < ProxyProtocol.V2_HEADER_LENGTH) {
+            return Reason.V2_BAD_LENGTH;
+        }
+
+        int versionCommand = buf.getUnsignedByte(readerIndex + 12);
+        if ((versionCommand >> 4) != 0x2) {
+            return Reason.V2_BAD_VERSION;
+        }
+        if ((versionCommand & 0x0F) > ProxyHeaderInfo.COMMAND_PROXY) {
+            return Reason.V2_BAD_COMMAND;
+        }
+
+        int familyProtocol = buf.getUnsignedByte(readerIndex + 13);
+        int addressLength = switch (familyProtocol >> 4) {
+            case ProxyHeaderInfo.FAMILY_UNSPEC -> 0;
+            case ProxyHeaderInfo.FAMILY_INET -> 12;
+            case ProxyHeaderInfo.FAMILY_INET6 -> 36;
+            case ProxyHeaderInfo.FAMILY_UNIX -> 216;
+            default -> -1;
+        };
+        if (addressLength < 0 || (familyProtocol & 0x0F) > V2_TRANSPORT_DGRAM) {
+            return Reason.V2_BAD_FAMILY;
+        }
+
+        int headerLength = buf.getUnsignedShort(readerIndex + 14);
+        if (headerLength < addressLength || headerLength > ProxyProtocol.V2_MAX_LENGTH
+            || readableBytes < ProxyProtocol.V2_HEADER_LENGTH + headerLength) {
+            return Reason.V2_BAD_LENGTH;
+        }
+
+        int tlvLength = headerLength - addressLength;
+        if (tlvLength > 0
+            && !ProxyHeaderInfo.validTlvs(buf, readerIndex + ProxyProtocol.V2_HEADER_LENGTH + addressLength, tlvLength)) {
+            return Reason.V2_BAD_TLV;
+        }
+        return null;
+    }
+
+    /**
+     * "PROXY UNKNOWN ...\r\n" 之后的内容按规范忽略；"PROXY TCP4|TCP6 src dst sport dport\r\n" 要求各字段由单个空格分隔，
+     * 地址只含点分或十六进制冒号字符，端口为 1 到 5 位数字且不超过 65535。
+     */
+    private static Reason validateV1(ByteBuf buf, int readerIndex, int readableBytes) {
+        int limit = readerIndex + Math.min(readableBytes, ProxyProtocol.V1_MAX_LENGTH);
+        int lineFeed = buf.indexOf(readerIndex + ProxyProtocol.V1_SIG_LENGTH, limit, (byte) '\n');
+        if (lineFeed < 0) {
+            return readableBytes >= ProxyProtocol.V1_MAX_LENGTH ? Reason.V1_TOO_LONG : Reason.V1_BAD_LINE_END;
+        }
+        int lineEnd = lineFeed - 1;
+        if (buf.getByte(lineEnd) != '\r') {
+            return Reason.V1_BAD_LINE_END;
+        }
+
+        int protocol = readerIndex + ProxyProtocol.V1_SIG_LENGTH;
+        int protocolLength = lineEnd - protocol;
+        if (protocolLength >= 7 && (buf.getLong(protocol) >>> 8) == V1_UNKNOWN
+            && (protocolLength == 7 || buf.getByte(protocol + 7) == ' ')) {
+            return null;
+        }
+        if (protocolLength < 5 || (buf.getInt(protocol) & 0xFFFFFF00) != ProxyProtocol.V1_TCP || buf.getByte(protocol + 4) != ' ') {
+            return Reason.V1_BAD_PROTOCOL;
+        }
+        boolean ipv6;
+        switch (buf.getByte(protocol + 3)) {
+            case '4' -> ipv6 = false;
+            case '6' -> ipv6 = true;
+            default -> {
+                return Reason.V1_BAD_PROTOCOL;
+            }
+        }
+
+        int field = 0;
+        int fieldStart = protocol + 5;
+        int value = 0;
+        for (int i = fieldStart; i <= lineEnd; i++) {
+            byte b = i == lineEnd ? (byte) ' ' : buf.getByte(i);
+            if (b == ' ') {
+                int length = i - fieldStart;
+                if (length == 0 || field >= V1_FIELDS || (field >= 2 && (length > 5 || value > 65535))) {
+                    return Reason.V1_BAD_FIELDS;
+                }
+                field++;
+                fieldStart = i + 1;
+                value = 0;
+            } else if (field >= 2) {
+                if (b < '0' || b > '9') {
+                    return Reason.V1_BAD_FIELDS;
+                }
+                value = value * 10 + (b - '0');
+            } else if (!isAddressChar(b, ipv6)) {
+                return Reason.V1_BAD_FIELDS;
+            }
+        }
+        return field == V1_FIELDS ? null : Reason.V1_BAD_FIELDS;
+    }
+
+    private static boolean isAddressChar(byte b, boolean ipv6) {
+        if ((b >= '0' && b <= '9') || b == '.') {
+            return true;
+        }
+        return ipv6 && (b == ':' || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F'));
+    }
+}
@@ -0,0 +1,53 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * PROXY protocol v1 / v2 的签名与长度常量，分类、校验、解析与伪造头共用这一份定义。
+ * 签名除字节数组外还拆成 getLong / getInt 宽读取用的整数，比较时一次读取即可。
+ */
+public final class ProxyProtocol {
+    /**
+     * v1 整行（含 CRLF）的上限，见 PROXY protocol 规范。
+     */
+    public static final int V1_MAX_LENGTH = 107;
+    /**
+     * v2 头声明长度（地址 + TLV）的上限。规范允许到 65535，但正常的代理只会带少量 TLV，
+     * 声明过长的头只会让一条连接攒下几十 KB 数据。
+     */
+    public static final int V2_MAX_LENGTH = 4096;
+    /**
+     * v2 固定头长度：12 字节签名、版本 / 命令、地址族 / 协议与 2 字节声明长度。
+     */
+    public static final int V2_HEADER_LENGTH = 16;
+
+    public static final int V1_SIG_LENGTH = 6;
+    public static final int V1_SIG_HEAD = 0x50524F58;
+    public static final short V1_SIG_TAIL = 0x5920;
+    public static final int V1_TCP = 0x54435000;
+    public static final int V2_SIG_LENGTH = 12;
+    public static final long V2_SIG_HEAD = 0x0D0A0D0A000D0A51L;
+    public static final int V2_SIG_TAIL = 0x5549540A;
+
+    static final byte[] V1_SIG = {'P', 'R', 'O', 'X', 'Y', ' '};
+    static final byte[] V2_SIG = {
+        0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A
+    };
+
+    private ProxyProtocol() {
+    }
+
+    /**
+     * index 处是否为完整的 v1 签名 "PROXY "，调用方保证至少有 {@link #V1_SIG_LENGTH} 字节可读。
+     */
+    public static boolean isV1Signature(ByteBuf buf, int index) {
+        return buf.getInt(index) == V1_SIG_HEAD && buf.getShort(index + 4) == V1_SIG_TAIL;
+    }
+
+    /**
+     * index 处是否为完整的 v2 签名，调用方保证至少有 {@link #V2_SIG_LENGTH} 字节可读。
+     */
+    public static boolean isV2Signature(ByteBuf buf, int index) {
+        return buf.getLong(index) == V2_SIG_HEAD && buf.getInt(index + 8) == V2_SIG_TAIL;
+    }
+}
@@ -0,0 +1,140 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.haproxy.HAProxyCommand;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * 为直连玩家生成 PROXY v2 头。按地址族预先准备好模板，每个连接只需要拷贝模板并填入源地址和端口；
+ * 开启 direct-proxy-message 时改为直接交出等价的 HAProxyMessage，见 {@link #replaceDecoder}。
+ */
+public final class SyntheticProxyHeader {
+    public static final int V4_LENGTH = ProxyProtocol.V2_HEADER_LENGTH + 12;
+    public static final int V6_LENGTH = ProxyProtocol.V2_HEADER_LENGTH + 36;
+
+    private static final int SOURCE_OFFSET = ProxyProtocol.V2_HEADER_LENGTH;
+    private static final int V4_SOURCE_PORT_OFFSET = SOURCE_OFFSET + 8;
+    private static final int V6_SOURCE_PORT_OFFSET = SOURCE_OFFSET + 32;
+    private static final int DESTINATION_PORT = 25565;
+    private static final String V4_DESTINATION = "127.0.0.1";
+    private static final String V6_DESTINATION = "0:0:0:0:0:0:0:1";
+
+    private static final byte[] V4_TEMPLATE = createTemplate(false);
+    private static final byte[] V6_TEMPLATE = createTemplate(true);
+
+    private SyntheticProxyHeader() {
+    }
+
+    /**
+     * 把伪造头放在 payload 前面并返回新的 buffer，payload 的引用计数由本方法接管。
+     * contiguous 为 true 时头和 payload 写入同一块池化内存，否则组合成 CompositeByteBuf 避免拷贝 payload。
+     */
+    public static ByteBuf prepend(ByteBufAllocator alloc, InetSocketAddress address, ByteBuf payload, boolean contiguous) {
+        int payloadLength = payload.readableBytes();
+        boolean ipv6 = !(address.getAddress() instanceof Inet4Address);
+        int headerLength = ipv6 ? V6_LENGTH : V4_LENGTH;
+
+        if (contiguous) {
+            ByteBuf out = alloc.buffer(headerLength + payloadLength);
+            try {
+                writeHeader(out, address, ipv6);
+                out.writeBytes(payload, payload.readerIndex(), payloadLength);
+            } catch (Throwable t) {
+                out.release();
+                throw t;
+            } finally {
+                payload.release();
+            }
+            return out;
+        }
+
+        ByteBuf header = alloc.buffer(headerLength);
+        try {
+            writeHeader(header, address, ipv6);
+        } catch (Throwable t) {
+            header.release();
+            payload.release();
+            throw t;
+        }
+        return alloc.compositeBuffer(2).addComponents(true, header, payload);
+    }
+
+    /**
+     * 不经过编码与解析，直接得到原生解码器解析伪造头后会产生的 HAProxyMessage：构造与模板相同内容的消息，
+     * 并把连接 pipeline 中服务端的 HAProxyMessageDecoder 移除，调用方随后依次向下游发送该消息与首包。
+     * pipeline 中没有原生解码器或地址无法表示为消息时返回 null，且不修改 pipeline，调用方应退回到伪造头。
+     */
+    public static HAProxyMessage replaceDecoder(ChannelPipeline pipeline, InetSocketAddress address) {
+        ChannelHandler decoder = pipeline.get(HAProxyMessageDecoder.class);
+        if (decoder == null) {
+            return null;
+        }
+
+        boolean ipv6 = !(address.getAddress() instanceof Inet4Address);
+        HAProxyMessage message;
+        try {
+            message = new HAProxyMessage(HAProxyProtocolVersion.V2, HAProxyCommand.PROXY,
+                ipv6 ? HAProxyProxiedProtocol.TCP6 : HAProxyProxiedProtocol.TCP4,
+                address.getAddress().getHostAddress(), ipv6 ? V6_DESTINATION : V4_DESTINATION,
+                address.getPort(), DESTINATION_PORT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        pipeline.remove(decoder);
+        return message;
+    }
+
+    public static ByteBuf encode(ByteBufAllocator alloc, InetSocketAddress address) {
+        boolean ipv6 = !(address.getAddress() instanceof Inet4Address);
+        ByteBuf header = alloc.buffer(ipv6 ? V6_LENGTH : V4_LENGTH);
+        writeHeader(header, address, ipv6);
+        return header;
+    }
+
+    private static void writeHeader(ByteBuf out, InetSocketAddress address, boolean ipv6) {
+        int start = out.writerIndex();
+        InetAddress source = address.getAddress();
+        if (ipv6) {
+            out.writeBytes(V6_TEMPLATE);
+            out.setBytes(start + SOURCE_OFFSET, source.getAddress());
+            out.setShort(start + V6_SOURCE_PORT_OFFSET, address.getPort());
+        } else {
+            out.writeBytes(V4_TEMPLATE);
+            out.setInt(start + SOURCE_OFFSET, CidrTrie.ipv4ToInt(source));
+            out.setShort(start + V4_SOURCE_PORT_OFFSET, address.getPort());
+        }
+    }
+
+    private static byte[] createTemplate(boolean ipv6) {
+        byte[] template = new byte[ipv6 ? V6_LENGTH : V4_LENGTH];
+        System.arraycopy(ProxyProtocol.V2_SIG, 0, template, 0, ProxyProtocol.V2_SIG_LENGTH);
+        template[12] = 0x21;
+        template[13] = (byte) (ipv6 ? 0x21 : 0x11);
+        template[15] = (byte) (ipv6 ? 36 : 12);
+
+        int destinationOffset;
+        if (ipv6) {
+            destinationOffset = SOURCE_OFFSET + 16;
+            template[destinationOffset + 15] = 1;
+        } else {
+            destinationOffset = SOURCE_OFFSET + 4;
+            template[destinationOffset] = 127;
+            template[destinationOffset + 3] = 1;
+        }
+
+        int destinationPortOffset = (ipv6 ? V6_SOURCE_PORT_OFFSET : V4_SOURCE_PORT_OFFSET) + 2;
+        template[destinationPortOffset] = (byte) (DESTINATION_PORT >>> 8);
+        template[destinationPortOffset + 1] = (byte) DESTINATION_PORT;
+        return template;
+    }
+}
@@ -0,0 +1,252 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 对反复发送非白名单 PROXY 头的来源做递增时长的临时封禁。
+ * 表是一块 long[] 上的开放寻址哈希，每个槽位依次存放地址高 64 位、低 64 位、封禁截止时间、最后一次违规时间、
+ * 以及「封禁次数 << 32 | 窗口内违规次数」；只在固定长度的探测窗口内查找，表满时覆盖窗口中最早过期的槽位。
+ * 准入检查（在子连接的事件循环上、服务端初始化之前）先做乐观读，与写入冲突时退回读锁重查，不会因为并发写入把已封禁的来源放行；
+ * 后台清理按块持有写锁，每块之间释放，准入检查最多等待一块的扫描。
+ */
+public final class TemporaryBanList {
+    private static final int SLOT_LONGS = 5;
+    private static final int HIGH = 0;
+    private static final int LOW = 1;
+    private static final int BANNED_UNTIL = 2;
+    private static final int LAST_STRIKE = 3;
+    private static final int META = 4;
+    private static final int PROBE_WINDOW = 16;
+    private static final int SWEEP_CHUNK_SLOTS = 1024;
+    private static final int MAX_SLOTS = 1 << 20;
+    private static final long V4_MAPPED_HIGH_BITS = 0xFFFF_0000_0000L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final int threshold;
+    private final long findTimeNanos;
+    private final long banNanos;
+    private final long maxBanNanos;
+    private final int mask;
+    private final long[] table;
+    private final StampedLock lock = new StampedLock();
+
+    public TemporaryBanList(int threshold, long findTimeSeconds, long banSeconds, long maxBanSeconds, int maxEntries) {
+        this.threshold = Math.max(1, threshold);
+        this.findTimeNanos = Math.max(1, findTimeSeconds) * NANOS_PER_SECOND;
+        this.banNanos = Math.max(1, banSeconds) * NANOS_PER_SECOND;
+        this.maxBanNanos = Math.max(this.banNanos, maxBanSeconds * NANOS_PER_SECOND);
+        int slots = slotsFor(maxEntries);
+        this.mask = slots - 1;
+        this.table = new long[slots * SLOT_LONGS];
+    }
+
+    /**
+     * 根据配置创建封禁表，未开启时返回 null。参数未变化时沿用 previous，保留已有的封禁记录。
+     */
+    public static TemporaryBanList from(DetectorSettings settings, TemporaryBanList previous) {
+        if (settings.banThreshold() <= 0) {
+            return null;
+        }
+        if (previous != null && previous.sameLimits(settings)) {
+            return previous;
+        }
+        return new TemporaryBanList(settings.banThreshold(), settings.banFindTime(), settings.banDuration(),
+            settings.banMaxDuration(), settings.banMaxEntries());
+    }
+
+    private boolean sameLimits(DetectorSettings settings) {
+        return threshold == Math.max(1, settings.banThreshold())
+            && mask == slotsFor(settings.banMaxEntries()) - 1
+            && findTimeNanos == Math.max(1, settings.banFindTime()) * NANOS_PER_SECOND
+            && banNanos == Math.max(1, settings.banDuration()) * NANOS_PER_SECOND
+            && maxBanNanos == Math.max(banNanos, settings.banMaxDuration() * NANOS_PER_SECOND);
+    }
+
+    public boolean isBanned(InetAddress address) {
+        long high = highBits(address);
+        long low = lowBits(address);
+        long now = System.nanoTime();
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean banned = banned(high, low, now);
+            if (lock.validate(stamp)) {
+                return banned;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return banned(high, low, now);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean banned(long high, long low, long now) {
+        int slot = find(high, low);
+        return slot >= 0 && banActive(slot, now);
+    }
+
+    /**
+     * 记录一次违规。达到阈值时开始封禁并返回本次封禁的秒数，否则返回 0。
+     * 每次重新被封禁时时长翻倍，直到最大时长；超过最大封禁时长没有再违规的来源会被遗忘。
+     */
+    public long strike(InetAddress address) {
+        long high = highBits(address);
+        long low = lowBits(address);
+        long now = System.nanoTime();
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(high, low);
+            if (slot < 0) {
+                slot = claim(high, low, now);
+            } else if (now - table[slot + LAST_STRIKE] > findTimeNanos) {
+                table[slot + META] &= 0xFFFF_FFFF_0000_0000L;
+            }
+
+            long meta = table[slot + META];
+            int bans = (int) (meta >>> 32);
+            int strikes = (int) meta + 1;
+            table[slot + LAST_STRIKE] = now;
+            if (strikes < threshold || banActive(slot, now)) {
+                table[slot + META] = ((long) bans << 32) | strikes;
+                return 0;
+            }
+
+            long duration = banNanos;
+            for (int i = 0; i < bans && duration < maxBanNanos; i++) {
+                duration <<= 1;
+            }
+            duration = Math.min(duration, maxBanNanos);
+            table[slot + BANNED_UNTIL] = (now + duration) | 1;
+            table[slot + META] = (long) (bans + 1) << 32;
+            return duration / NANOS_PER_SECOND;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 清理封禁已结束且长时间没有再违规的槽位，在后台调度线程上调用。每 {@link #SWEEP_CHUNK_SLOTS} 个槽位释放一次写锁。
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        int chunkLongs = SWEEP_CHUNK_SLOTS * SLOT_LONGS;
+        for (int start = 0; start < table.length; start += chunkLongs) {
+            int end = Math.min(table.length, start + chunkLongs);
+            long stamp = lock.writeLock();
+            try {
+                for (int slot = start; slot < end; slot += SLOT_LONGS) {
+                    if (table[slot + META] != 0 && forgotten(slot, now)) {
+                        clear(slot);
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public int bannedCount() {
+        long now = System.nanoTime();
+        long stamp = lock.readLock();
+        try {
+            int count = 0;
+            for (int slot = 0; slot < table.length; slot += SLOT_LONGS) {
+                if (table[slot + META] != 0 && banActive(slot, now)) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int find(long high, long low) {
+        int index = index(high, low);
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int slot = ((index + i) & mask) * SLOT_LONGS;
+            if (table[slot + META] != 0 && table[slot + HIGH] == high && table[slot + LOW] == low) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int claim(long high, long low, long now) {
+        int index = index(high, low);
+        int victim = -1;
+        long victimExpiry = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int slot = ((index + i) & mask) * SLOT_LONGS;
+            if (table[slot + META] == 0 || forgotten(slot, now)) {
+                victim = slot;
+                break;
+            }
+            long expiry = Math.max(table[slot + BANNED_UNTIL], table[slot + LAST_STRIKE] + findTimeNanos) - now;
+            if (expiry < victimExpiry) {
+                victimExpiry = expiry;
+                victim = slot;
+            }
+        }
+
+        clear(victim);
+        table[victim + HIGH] = high;
+        table[victim + LOW] = low;
+        return victim;
+    }
+
+    private boolean banActive(int slot, long now) {
+        long bannedUntil = table[slot + BANNED_UNTIL];
+        return bannedUntil != 0 && bannedUntil - now > 0;
+    }
+
+    private boolean forgotten(int slot, long now) {
+        return !banActive(slot, now) && now - table[slot + LAST_STRIKE] > maxBanNanos;
+    }
+
+    private void clear(int slot) {
+        for (int i = 0; i < SLOT_LONGS; i++) {
+            table[slot + i] = 0;
+        }
+    }
+
+    private static int slotsFor(int maxEntries) {
+        int entries = Math.max(PROBE_WINDOW, Math.min(MAX_SLOTS, maxEntries));
+        return Integer.highestOneBit(entries - 1) << 1;
+    }
+
+    private int index(long high, long low) {
+        long hash = (high * 0x9E3779B97F4A7C15L) ^ (low * 0xC2B2AE3D27D4EB4FL);
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long highBits(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return 0;
+        }
+        byte[] bytes = address.getAddress();
+        long high = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+        }
+        return high;
+    }
+
+    private static long lowBits(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return V4_MAPPED_HIGH_BITS | (CidrTrie.ipv4ToInt(address) & 0xFFFF_FFFFL);
+        }
+        byte[] bytes = address.getAddress();
+        long low = 0;
+        for (int i = 8; i < 16; i++) {
+            low = (low << 8) | (bytes[i] & 0xFF);
+        }
+        return low;
+    }
+}
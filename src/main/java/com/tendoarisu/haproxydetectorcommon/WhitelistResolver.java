@@ -0,0 +1,173 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 把白名单配置编译成 {@link CidrTrie}，域名条目在后台虚拟线程上并行解析并按间隔刷新。
+ * 每轮解析完成后整体替换快照并通知 listener，不会出现半更新的白名单。
+ * 调度线程只负责发起一轮解析，等待 DNS 与发布快照都在解析完成的回调中进行，共用的调度线程不会被慢 DNS 阻塞。
+ */
+public final class WhitelistResolver {
+    private static final long LOOKUP_TIMEOUT_MILLIS = 5000;
+
+    private final List<String> literalEntries = new ArrayList<>();
+    private final List<String> hostEntries = new ArrayList<>();
+    private final HostResolver hostResolver;
+    private final Consumer<CidrTrie> listener;
+    private final Map<String, InetAddress[]> resolvedHosts = new ConcurrentHashMap<>();
+    private volatile CidrTrie current;
+    private volatile ScheduledFuture<?> refreshTask;
+    private CompletableFuture<CidrTrie> inFlight;
+
+    public WhitelistResolver(List<String> entries, HostResolver hostResolver, Consumer<CidrTrie> listener) {
+        this(entries, hostResolver, listener, null);
+    }
+
+    /**
+     * 重载时传入旧的解析器：仍在配置中的域名先沿用其上一次解析到的地址，新解析器在第一轮 DNS 完成前不会拦截这些 frps。
+     */
+    public WhitelistResolver(List<String> entries, HostResolver hostResolver, Consumer<CidrTrie> listener,
+                             WhitelistResolver previous) {
+        this.hostResolver = hostResolver;
+        this.listener = listener;
+        CidrTrie.Builder probe = CidrTrie.builder();
+        for (String entry : entries) {
+            if (entry == null) {
+                continue;
+            }
+
+            String normalized = entry.trim();
+            if (normalized.isEmpty()) {
+                continue;
+            }
+
+            if (probe.add(normalized)) {
+                literalEntries.add(normalized);
+            } else if (!normalized.contains("/")) {
+                hostEntries.add(normalized);
+            }
+        }
+        if (previous != null) {
+            for (String host : hostEntries) {
+                InetAddress[] addresses = previous.resolvedHosts.get(host);
+                if (addresses != null) {
+                    resolvedHosts.put(host, addresses);
+                }
+            }
+        }
+        current = compile();
+    }
+
+    public CidrTrie current() {
+        return current;
+    }
+
+    public boolean hasHosts() {
+        return !hostEntries.isEmpty();
+    }
+
+    /**
+     * 立即在调度线程上解析一轮域名，之后按 refreshSeconds 间隔刷新（小于等于 0 时不刷新）。
+     * 返回第一轮解析完成的 future，调用方可以决定启动时最多等待多久。
+     */
+    public CompletableFuture<CidrTrie> start(ScheduledExecutorService scheduler, long refreshSeconds) {
+        if (!hasHosts()) {
+            return CompletableFuture.completedFuture(current);
+        }
+
+        CompletableFuture<CidrTrie> firstRound = refresh();
+        if (refreshSeconds > 0) {
+            refreshTask = scheduler.scheduleWithFixedDelay(this::refresh, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+        return firstRound;
+    }
+
+    public void stop() {
+        ScheduledFuture<?> task = refreshTask;
+        if (task != null) {
+            refreshTask = null;
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * 在虚拟线程上并行发起一轮解析并立即返回，全部完成（或超时）后发布新的快照。解析失败或超时的域名沿用上一次的结果。
+     * 上一轮尚未完成时不重复发起，直接返回进行中的那一轮，因此同一时间只有一轮在发布快照。
+     */
+    public synchronized CompletableFuture<CidrTrie> refresh() {
+        if (hostEntries.isEmpty()) {
+            return CompletableFuture.completedFuture(current);
+        }
+        if (inFlight != null && !inFlight.isDone()) {
+            return inFlight;
+        }
+
+        ExecutorService lookupExecutor = DetectorExecutors.newVirtualExecutor("haproxydetector-dns-");
+        CompletableFuture<?>[] lookups = new CompletableFuture<?>[hostEntries.size()];
+        for (int i = 0; i < lookups.length; i++) {
+            String host = hostEntries.get(i);
+            lookups[i] = CompletableFuture.supplyAsync(() -> resolve(host), lookupExecutor)
+                .orTimeout(LOOKUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .thenAccept(addresses -> {
+                    if (addresses != null && addresses.length > 0) {
+                        resolvedHosts.put(host, addresses);
+                    }
+                });
+        }
+
+        CompletableFuture<CidrTrie> round = CompletableFuture.allOf(lookups)
+            .handle((ignored, failure) -> {
+                lookupExecutor.shutdownNow();
+                return publish();
+            });
+        inFlight = round;
+        return round;
+    }
+
+    private InetAddress[] resolve(String host) {
+        try {
+            return hostResolver.resolve(host);
+        } catch (UnknownHostException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private CidrTrie publish() {
+        CidrTrie compiled = compile();
+        current = compiled;
+        listener.accept(compiled);
+        return compiled;
+    }
+
+    private CidrTrie compile() {
+        CidrTrie.Builder builder = CidrTrie.builder();
+        for (String entry : literalEntries) {
+            builder.add(entry);
+        }
+        for (InetAddress[] addresses : resolvedHosts.values()) {
+            for (InetAddress address : addresses) {
+                builder.add(address);
+            }
+        }
+        return builder.build();
+    }
+
+    @FunctionalInterface
+    public interface HostResolver {
+        HostResolver SYSTEM = InetAddress::getAllByName;
+
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+}
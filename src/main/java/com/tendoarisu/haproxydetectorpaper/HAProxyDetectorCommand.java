@@ -0,0 +1,56 @@
+package com.tendoarisu.haproxydetectorpaper;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class HAProxyDetectorCommand implements TabExecutor {
+    private static final List<String> SUBCOMMANDS = List.of("reload", "stats");
+
+    private final HAProxyDetectorPaper plugin;
+
+    HAProxyDetectorCommand(HAProxyDetectorPaper plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            sender.sendMessage("用法: /" + label + " <" + String.join("|", SUBCOMMANDS) + ">");
+            return true;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "reload" -> {
+                if (plugin.reloadPluginConfig()) {
+                    sender.sendMessage("HAProxyDetector 配置已重载。");
+                } else {
+                    sender.sendMessage("HAProxyDetector 配置重载失败，已保留当前配置，详情见控制台。");
+                }
+            }
+            case "stats" -> {
+                for (String line : plugin.metrics().snapshot().describe()) {
+                    sender.sendMessage(line);
+                }
+            }
+            default -> sender.sendMessage("未知子命令: " + args[0]);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        List<String> result = new ArrayList<>();
+        if (args.length == 1) {
+            for (String subcommand : SUBCOMMANDS) {
+                if (subcommand.startsWith(args[0].toLowerCase())) {
+                    result.add(subcommand);
+                }
+            }
+        }
+        return result;
+    }
+}
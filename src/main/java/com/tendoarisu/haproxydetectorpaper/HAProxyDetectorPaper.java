@@ -2,37 +2,73 @@ package com.tendoarisu.haproxydetectorpaper;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
+import com.tendoarisu.haproxydetectorcommon.ChildHandlerHook;
+import com.tendoarisu.haproxydetectorcommon.CidrTrie;
+import com.tendoarisu.haproxydetectorcommon.DetectorMetrics;
+import com.tendoarisu.haproxydetectorcommon.DetectorRuntime;
+import com.tendoarisu.haproxydetectorcommon.DetectorSettings;
+import com.tendoarisu.haproxydetectorcommon.ListenerLocator;
+import com.tendoarisu.haproxydetectorcommon.ListenerTuning;
+import com.tendoarisu.haproxydetectorcommon.LocalChannels;
+import com.tendoarisu.haproxydetectorcommon.WhitelistResolver;
 import org.bukkit.Bukkit;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
 public final class HAProxyDetectorPaper extends JavaPlugin {
 
     private static final String INJECTOR_NAME = "haproxydetectorpaper-injector";
     private static final String CONNECTION_HANDLER_NAME = "haproxydetectorpaper-handler";
+    private static final long INITIAL_RESOLVE_TIMEOUT_SECONDS = 3;
+    private static final long LISTENER_CHECK_SECONDS = 5;
 
     private boolean proxyProtocolEnabled = false;
-    private boolean whitelistEnabled = true;
-    private List<String> whitelist = new ArrayList<>();
+    private DetectorRuntime runtime;
+    private HAProxyHandler connectionHandler;
+    private ListenerLocator listenerLocator;
+    private Object minecraftServer;
     private final Set<Channel> injectedServerChannels = ConcurrentHashMap.newKeySet();
-    private final Set<Channel> injectedChildChannels = ConcurrentHashMap.newKeySet();
+    private final Map<Channel, ChildHandlerHook> childHandlerHooks = new ConcurrentHashMap<>();
+    private final ChildHandlerHook.ChildInitializer childInitializer = new ChildHandlerHook.ChildInitializer() {
+        @Override
+        public boolean admit(Channel child) {
+            return admitChild(child);
+        }
+
+        @Override
+        public void initChild(Channel child) {
+            HAProxyDetectorPaper.this.initChild(child);
+        }
+    };
     private volatile boolean nettyActive = false;
 
     @Override
     public void onEnable() {
         saveDefaultConfig();
-        loadPluginConfig();
+        runtime = new DetectorRuntime("HAProxyDetectorPaper", getDataFolder().toPath(),
+            WhitelistResolver.HostResolver.SYSTEM, getLogger()::warning);
+        connectionHandler = new HAProxyHandler(runtime);
+        try {
+            loadPluginConfig();
+        } catch (Exception e) {
+            getLogger().log(Level.SEVERE, "读取 config.yml 失败，插件将自动禁用: ", e);
+            Bukkit.getPluginManager().disablePlugin(this);
+            return;
+        }
 
         try {
             checkProxyProtocol();
@@ -45,9 +81,12 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
             injectNetty();
             nettyActive = true;
             getLogger().info("HAProxyDetector 已成功注入 Netty 流。");
-            if (!whitelistEnabled) {
+            if (!runtime.policy().whitelistEnabled()) {
                 getLogger().warning("注意：白名单检查已禁用，当前处于调试模式（允许所有 HAProxy 连接）。");
             }
+
+            registerCommand();
+            watchConfig();
         } catch (Exception e) {
             nettyActive = false;
             detachNetty();
@@ -55,38 +94,57 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
         }
     }
 
-    private void loadPluginConfig() {
-        reloadConfig();
-        whitelistEnabled = getConfig().getBoolean("enable-whitelist", true);
-        whitelist = resolveWhitelistEntries(getConfig().getStringList("whitelist"));
+    private void loadPluginConfig() throws Exception {
+        CompletableFuture<CidrTrie> firstRound = runtime.apply(readSettings());
+        try {
+            firstRound.get(INITIAL_RESOLVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            getLogger().warning("部分白名单域名解析较慢，将在后台解析完成后生效。");
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "解析白名单域名时出错: ", e);
+        }
     }
 
-    private List<String> resolveWhitelistEntries(List<String> entries) {
-        List<String> resolvedEntries = new ArrayList<>();
-        for (String entry : entries) {
-            if (entry == null) {
-                continue;
-            }
+    boolean reloadPluginConfig() {
+        try {
+            runtime.apply(readSettings());
+            getLogger().info("配置已重载。");
+            return true;
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "重载配置失败，继续使用当前配置: ", e);
+            return false;
+        }
+    }
 
-            String normalized = entry.trim();
-            if (normalized.isEmpty()) {
-                continue;
-            }
+    DetectorMetrics metrics() {
+        return runtime.metrics();
+    }
 
-            if (normalized.contains("/")) {
-                resolvedEntries.add(normalized);
-                continue;
-            }
+    private DetectorSettings readSettings() throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.load(new File(getDataFolder(), "config.yml"));
+        return DetectorSettings.from(config.getValues(false));
+    }
 
-            try {
-                for (InetAddress address : InetAddress.getAllByName(normalized)) {
-                    resolvedEntries.add(address.getHostAddress());
-                }
-            } catch (Exception ignored) {
-                resolvedEntries.add(normalized);
-            }
+    private void registerCommand() {
+        PluginCommand command = getCommand("haproxydetector");
+        if (command != null) {
+            HAProxyDetectorCommand executor = new HAProxyDetectorCommand(this);
+            command.setExecutor(executor);
+            command.setTabCompleter(executor);
+        }
+    }
+
+    private void watchConfig() {
+        if (!runtime.policy().settings().autoReload()) {
+            return;
+        }
+
+        try {
+            runtime.watchConfig(new File(getDataFolder(), "config.yml").toPath(), this::reloadPluginConfig);
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "无法监听 config.yml 的修改，请使用 /haproxydetector reload 手动重载: ", e);
         }
-        return resolvedEntries;
     }
 
     private void checkProxyProtocol() {
@@ -107,7 +165,87 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
 
     private void injectNetty() throws Exception {
         Object serverInstance = Bukkit.getServer().getClass().getMethod("getServer").invoke(Bukkit.getServer());
+        listenerLocator = ListenerLocator.resolve(getDataFolder().toPath(), Bukkit.getVersion(), serverInstance,
+            this::findListenerFields, getLogger()::warning);
+        if (listenerLocator == null) {
+            return;
+        }
+
+        minecraftServer = serverInstance;
+        injectListeners();
+        if (injectedServerChannels.isEmpty()) {
+            runtime.scheduler().schedule(this::awaitListeners, LISTENER_CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Paper 没有绑定监听的事件，插件在服务端绑定之前启用时（load: STARTUP）按间隔重读监听列表，注入到第一个监听后即停止；
+     * 服务端只在启动时绑定一次，之后不会再出现新的监听。
+     */
+    private void awaitListeners() {
+        if (!nettyActive) {
+            return;
+        }
+        injectListeners();
+        if (injectedServerChannels.isEmpty()) {
+            runtime.scheduler().schedule(this::awaitListeners, LISTENER_CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 在每个监听上安装一次 {@link ChildHandlerHook}：准入检查在服务端初始化之前、检测器在其之后，都在子连接自己的事件循环上进行。
+     * 每个新发现的监听各输出一行传输与 socket 参数摘要。
+     */
+    private void injectListeners() {
+        for (ChannelFuture future : listenerLocator.channelFutures(minecraftServer)) {
+            Channel serverChannel = future.channel();
+            if (!serverChannel.isOpen() || injectedServerChannels.contains(serverChannel)) {
+                continue;
+            }
 
+            ChildHandlerHook hook;
+            try {
+                hook = ChildHandlerHook.install(serverChannel, INJECTOR_NAME, childInitializer);
+            } catch (Exception e) {
+                getLogger().log(Level.WARNING, "无法在监听 " + serverChannel.localAddress() + " 上安装检测器: ", e);
+                continue;
+            }
+            if (hook != null) {
+                childHandlerHooks.put(serverChannel, hook);
+                serverChannel.closeFuture().addListener(closed -> childHandlerHooks.remove(serverChannel));
+            }
+            getLogger().info(ListenerTuning.apply(serverChannel, runtime.policy().settings()));
+            trackChannel(injectedServerChannels, serverChannel);
+        }
+    }
+
+    /**
+     * 封禁与限速检查，在服务端的 childHandler 之前执行，被拒绝的连接不会构建服务端的 pipeline。
+     */
+    private boolean admitChild(Channel childChannel) {
+        return !nettyActive || LocalChannels.isLocal(childChannel) || runtime.allowConnection(childChannel.remoteAddress());
+    }
+
+    /**
+     * 在子连接自己的事件循环上执行，服务端的 childHandler 此时已完成初始化：把检测 handler 加到最前面。
+     */
+    private void initChild(Channel childChannel) {
+        if (!nettyActive) {
+            return;
+        }
+        if (LocalChannels.isLocal(childChannel)) {
+            runtime.metrics().record(DetectorMetrics.Outcome.LOCAL, 0);
+            return;
+        }
+
+        ChannelPipeline pipeline = childChannel.pipeline();
+        if (pipeline.get(CONNECTION_HANDLER_NAME) == null) {
+            pipeline.addFirst(CONNECTION_HANDLER_NAME, connectionHandler);
+        }
+    }
+
+    private List<Field> findListenerFields(Object serverInstance) throws Exception {
+        Field connectionField = null;
         Object serverConnection = null;
         Class<?> currentClass = serverInstance.getClass();
         while (currentClass != null && currentClass != Object.class) {
@@ -117,6 +255,7 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
                     field.setAccessible(true);
                     serverConnection = field.get(serverInstance);
                     if (serverConnection != null) {
+                        connectionField = field;
                         break;
                     }
                 }
@@ -131,8 +270,8 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
             currentClass = serverInstance.getClass();
             while (currentClass != null && currentClass != Object.class) {
                 for (Field field : currentClass.getDeclaredFields()) {
-                    field.setAccessible(true);
                     try {
+                        field.setAccessible(true);
                         Object potentialConn = field.get(serverInstance);
                         if (potentialConn == null) {
                             continue;
@@ -144,6 +283,7 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
                                 Object list = subField.get(potentialConn);
                                 if (list instanceof List<?> genericList && !genericList.isEmpty() && genericList.get(0) instanceof ChannelFuture) {
                                     serverConnection = potentialConn;
+                                    connectionField = field;
                                     break;
                                 }
                             }
@@ -165,35 +305,25 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
             throw new IllegalStateException("无法在当前服务端版本中定位 ServerConnection 实例");
         }
 
-        List<ChannelFuture> channelFutures = null;
+        Field channelsField = null;
         for (Field field : serverConnection.getClass().getDeclaredFields()) {
             if (List.class.isAssignableFrom(field.getType())) {
                 field.setAccessible(true);
                 Object list = field.get(serverConnection);
                 if (list instanceof List<?> genericList) {
                     if (!genericList.isEmpty() && genericList.get(0) instanceof ChannelFuture) {
-                        channelFutures = (List<ChannelFuture>) list;
+                        channelsField = field;
                         break;
                     }
-                    if (genericList.isEmpty() && (field.getName().equals("channels") || field.getName().equals("g"))) {
-                        channelFutures = (List<ChannelFuture>) list;
+                    if (ListenerLocator.isChannelFutureList(field, list)
+                        || genericList.isEmpty() && (field.getName().equals("channels") || field.getName().equals("g"))) {
+                        channelsField = field;
                     }
                 }
             }
         }
 
-        if (channelFutures == null) {
-            return;
-        }
-
-        for (ChannelFuture future : channelFutures) {
-            Channel serverChannel = future.channel();
-            ChannelPipeline pipeline = serverChannel.pipeline();
-            if (pipeline.get(INJECTOR_NAME) == null) {
-                pipeline.addFirst(INJECTOR_NAME, new HAProxyInjector());
-            }
-            trackChannel(injectedServerChannels, serverChannel);
-        }
+        return channelsField == null ? null : List.of(connectionField, channelsField);
     }
 
     private void trackChannel(Set<Channel> channelSet, Channel channel) {
@@ -203,65 +333,23 @@ public final class HAProxyDetectorPaper extends JavaPlugin {
     }
 
     private void detachNetty() {
-        for (Channel channel : new ArrayList<>(injectedChildChannels)) {
-            removeHandler(channel, CONNECTION_HANDLER_NAME);
+        if (runtime != null) {
+            runtime.detach();
         }
-        injectedChildChannels.clear();
 
-        for (Channel channel : new ArrayList<>(injectedServerChannels)) {
-            removeHandler(channel, INJECTOR_NAME);
+        for (ChildHandlerHook hook : childHandlerHooks.values()) {
+            hook.uninstall();
         }
+        childHandlerHooks.clear();
         injectedServerChannels.clear();
     }
 
-    private void removeHandler(Channel channel, String handlerName) {
-        if (channel == null) {
-            return;
-        }
-
-        Runnable removeTask = () -> {
-            try {
-                ChannelPipeline pipeline = channel.pipeline();
-                if (pipeline.get(handlerName) != null) {
-                    pipeline.remove(handlerName);
-                }
-            } catch (Exception ignored) {
-            }
-        };
-
-        try {
-            if (channel.eventLoop().inEventLoop()) {
-                removeTask.run();
-            } else {
-                channel.eventLoop().execute(removeTask);
-            }
-        } catch (Exception ignored) {
-        }
-    }
-
-    private class HAProxyInjector extends ChannelInboundHandlerAdapter {
-        @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-            if (!nettyActive) {
-                removeHandler(ctx.channel(), INJECTOR_NAME);
-                super.channelRead(ctx, msg);
-                return;
-            }
-
-            if (msg instanceof Channel childChannel) {
-                ChannelPipeline pipeline = childChannel.pipeline();
-                if (pipeline.get(CONNECTION_HANDLER_NAME) == null) {
-                    pipeline.addFirst(CONNECTION_HANDLER_NAME, new HAProxyHandler(getLogger(), whitelistEnabled, whitelist));
-                    trackChannel(injectedChildChannels, childChannel);
-                }
-            }
-            super.channelRead(ctx, msg);
-        }
-    }
-
     @Override
     public void onDisable() {
         nettyActive = false;
         detachNetty();
+        if (runtime != null) {
+            runtime.shutdown();
+        }
     }
 }
@@ -0,0 +1,65 @@
+package com.tendoarisu.haproxydetectorvelocity;
+
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.command.SimpleCommand;
+import net.kyori.adventure.text.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class HAProxyDetectorCommand implements SimpleCommand {
+    private static final String PERMISSION = "haproxydetector.admin";
+    private static final List<String> SUBCOMMANDS = List.of("reload", "stats");
+
+    private final HAProxyDetectorVelocity plugin;
+
+    HAProxyDetectorCommand(HAProxyDetectorVelocity plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void execute(Invocation invocation) {
+        CommandSource source = invocation.source();
+        String[] args = invocation.arguments();
+        if (args.length == 0) {
+            source.sendMessage(Component.text("用法: /" + invocation.alias() + " <" + String.join("|", SUBCOMMANDS) + ">"));
+            return;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "reload" -> {
+                if (plugin.reloadConfig()) {
+                    source.sendMessage(Component.text("HAProxyDetector 配置已重载。"));
+                } else {
+                    source.sendMessage(Component.text("HAProxyDetector 配置重载失败，已保留当前配置，详情见控制台。"));
+                }
+            }
+            case "stats" -> {
+                for (String line : plugin.metrics().snapshot().describe()) {
+                    source.sendMessage(Component.text(line));
+                }
+            }
+            default -> source.sendMessage(Component.text("未知子命令: " + args[0]));
+        }
+    }
+
+    @Override
+    public List<String> suggest(Invocation invocation) {
+        String[] args = invocation.arguments();
+        List<String> result = new ArrayList<>();
+        if (args.length <= 1) {
+            String prefix = args.length == 0 ? "" : args[0].toLowerCase();
+            for (String subcommand : SUBCOMMANDS) {
+                if (subcommand.startsWith(prefix)) {
+                    result.add(subcommand);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasPermission(Invocation invocation) {
+        return invocation.source().hasPermission(PERMISSION);
+    }
+}
@@ -1,35 +1,51 @@
 package com.tendoarisu.haproxydetectorvelocity;
 
 import com.google.inject.Inject;
+import com.tendoarisu.haproxydetectorcommon.ChildHandlerHook;
+import com.tendoarisu.haproxydetectorcommon.CidrTrie;
+import com.tendoarisu.haproxydetectorcommon.DetectorMetrics;
+import com.tendoarisu.haproxydetectorcommon.DetectorRuntime;
+import com.tendoarisu.haproxydetectorcommon.DetectorSettings;
+import com.tendoarisu.haproxydetectorcommon.FirstPacketDecider;
+import com.tendoarisu.haproxydetectorcommon.ListenerLocator;
+import com.tendoarisu.haproxydetectorcommon.ListenerTuning;
+import com.tendoarisu.haproxydetectorcommon.LocalChannels;
+import com.tendoarisu.haproxydetectorcommon.WhitelistResolver;
+import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.command.CommandMeta;
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.proxy.ListenerBoundEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
 import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.ProxyServer;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.util.AttributeKey;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Plugin(
         id = "haproxydetectorvelocity",
@@ -42,14 +58,27 @@ public class HAProxyDetectorVelocity {
 
     private static final String INJECTOR_NAME = "haproxydetectorvelocity-injector";
     private static final String CONNECTION_HANDLER_NAME = "haproxydetectorvelocity-handler";
+    private static final long INITIAL_RESOLVE_TIMEOUT_SECONDS = 3;
 
     private final ProxyServer server;
     private final Logger logger;
     private final Path dataDirectory;
-    private boolean whitelistEnabled = true;
-    private List<String> whitelist = new ArrayList<>();
+    private DetectorRuntime runtime;
+    private HAProxyHandler connectionHandler;
+    private ListenerLocator listenerLocator;
     private final Set<Channel> injectedServerChannels = ConcurrentHashMap.newKeySet();
-    private final Set<Channel> injectedChildChannels = ConcurrentHashMap.newKeySet();
+    private final Map<Channel, ChildHandlerHook> childHandlerHooks = new ConcurrentHashMap<>();
+    private final ChildHandlerHook.ChildInitializer childInitializer = new ChildHandlerHook.ChildInitializer() {
+        @Override
+        public boolean admit(Channel child) {
+            return admitChild(child);
+        }
+
+        @Override
+        public void initChild(Channel child) {
+            HAProxyDetectorVelocity.this.initChild(child);
+        }
+    };
     private volatile boolean nettyActive = false;
 
     @Inject
@@ -62,10 +91,15 @@ public class HAProxyDetectorVelocity {
     @Subscribe
     public void onProxyInitialization(ProxyInitializeEvent event) {
         try {
+            runtime = new DetectorRuntime("HAProxyDetectorVelocity", dataDirectory,
+                    WhitelistResolver.HostResolver.SYSTEM, logger::warn);
+            connectionHandler = new HAProxyHandler(runtime);
             loadConfig();
             injectNetty();
             nettyActive = true;
             logger.info("HAProxyDetectorVelocity 已成功注入 Netty 流。");
+            registerCommand();
+            watchConfig();
         } catch (Exception e) {
             nettyActive = false;
             detachNetty();
@@ -73,13 +107,52 @@ public class HAProxyDetectorVelocity {
         }
     }
 
+    /**
+     * Velocity 在 ProxyInitializeEvent 之后才绑定监听，启动时以及重载后新增的监听都通过这个事件注入，不需要轮询。
+     */
+    @Subscribe
+    public void onListenerBound(ListenerBoundEvent event) {
+        if (nettyActive && listenerLocator != null) {
+            runtime.scheduler().execute(this::injectListeners);
+        }
+    }
+
     @Subscribe
     public void onProxyShutdown(ProxyShutdownEvent event) {
         nettyActive = false;
         detachNetty();
+        if (runtime != null) {
+            runtime.shutdown();
+        }
     }
 
     private void loadConfig() throws IOException {
+        CompletableFuture<CidrTrie> firstRound = runtime.apply(readSettings());
+        try {
+            firstRound.get(INITIAL_RESOLVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("部分白名单域名解析较慢，将在后台解析完成后生效。");
+        } catch (Exception e) {
+            logger.warn("解析白名单域名时出错: ", e);
+        }
+    }
+
+    boolean reloadConfig() {
+        try {
+            runtime.apply(readSettings());
+            logger.info("配置已重载。");
+            return true;
+        } catch (Exception e) {
+            logger.warn("重载配置失败，继续使用当前配置: ", e);
+            return false;
+        }
+    }
+
+    DetectorMetrics metrics() {
+        return runtime.metrics();
+    }
+
+    private DetectorSettings readSettings() throws IOException {
         Files.createDirectories(dataDirectory);
         Path configPath = dataDirectory.resolve("config.yml");
         if (Files.notExists(configPath)) {
@@ -91,9 +164,8 @@ public class HAProxyDetectorVelocity {
             }
         }
 
-        whitelistEnabled = true;
-        whitelist = new ArrayList<>();
-        boolean readingWhitelist = false;
+        Map<String, Object> values = new LinkedHashMap<>();
+        List<String> currentList = null;
 
         for (String line : Files.readAllLines(configPath, StandardCharsets.UTF_8)) {
             String trimmed = stripComment(line).trim();
@@ -101,34 +173,57 @@ public class HAProxyDetectorVelocity {
                 continue;
             }
 
-            if (trimmed.startsWith("enable-whitelist:")) {
-                String value = normalizeYamlValue(trimmed.substring("enable-whitelist:".length()).trim());
-                whitelistEnabled = Boolean.parseBoolean(value);
-                readingWhitelist = false;
+            if (trimmed.startsWith("-")) {
+                if (currentList != null) {
+                    String entry = normalizeYamlValue(trimmed.substring(1).trim());
+                    if (!entry.isEmpty()) {
+                        currentList.add(entry);
+                    }
+                }
                 continue;
             }
 
-            if (trimmed.equals("whitelist:")) {
-                readingWhitelist = true;
+            currentList = null;
+            if (Character.isWhitespace(line.charAt(0))) {
                 continue;
             }
 
-            if (readingWhitelist) {
-                if (trimmed.startsWith("-")) {
-                    String entry = normalizeYamlValue(trimmed.substring(1).trim());
-                    if (!entry.isEmpty()) {
-                        whitelist.add(entry);
-                    }
-                    continue;
-                }
+            int colon = trimmed.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
 
-                if (!Character.isWhitespace(line.charAt(0))) {
-                    readingWhitelist = false;
-                }
+            String key = trimmed.substring(0, colon).trim();
+            String value = trimmed.substring(colon + 1).trim();
+            if (value.isEmpty()) {
+                currentList = new ArrayList<>();
+                values.put(key, currentList);
+            } else if (value.equals("[]")) {
+                values.put(key, new ArrayList<String>());
+            } else {
+                values.put(key, normalizeYamlValue(value));
             }
         }
 
-        whitelist = resolveWhitelistEntries(whitelist);
+        return DetectorSettings.from(values);
+    }
+
+    private void registerCommand() {
+        CommandManager commandManager = server.getCommandManager();
+        CommandMeta meta = commandManager.metaBuilder("haproxydetector").plugin(this).build();
+        commandManager.register(meta, new HAProxyDetectorCommand(this));
+    }
+
+    private void watchConfig() {
+        if (!runtime.policy().settings().autoReload()) {
+            return;
+        }
+
+        try {
+            runtime.watchConfig(dataDirectory.resolve("config.yml"), this::reloadConfig);
+        } catch (Exception e) {
+            logger.warn("无法监听 config.yml 的修改，请使用 /haproxydetector reload 手动重载: ", e);
+        }
     }
 
     private String stripComment(String line) {
@@ -156,65 +251,93 @@ public class HAProxyDetectorVelocity {
         return value;
     }
 
-    private List<String> resolveWhitelistEntries(List<String> entries) {
-        List<String> resolvedEntries = new ArrayList<>();
-        for (String entry : entries) {
-            if (entry == null) {
-                continue;
-            }
+    private void injectNetty() throws Exception {
+        String version = server.getVersion().getName() + " " + server.getVersion().getVersion();
+        listenerLocator = ListenerLocator.resolve(dataDirectory, version, server, this::findListenerFields, logger::warn);
+        if (listenerLocator == null) {
+            return;
+        }
 
-            String normalized = entry.trim();
-            if (normalized.isEmpty()) {
-                continue;
-            }
+        injectListeners();
+    }
 
-            if (normalized.contains("/")) {
-                resolvedEntries.add(normalized);
+    /**
+     * 在每个监听上安装一次 {@link ChildHandlerHook}：准入检查在服务端初始化之前、检测器在其之后，都在子连接自己的事件循环上进行。
+     */
+    private void injectListeners() {
+        for (ChannelFuture future : listenerLocator.channelFutures(server)) {
+            Channel serverChannel = future.channel();
+            if (!serverChannel.isOpen() || injectedServerChannels.contains(serverChannel)) {
                 continue;
             }
 
+            ChildHandlerHook hook;
             try {
-                for (InetAddress address : InetAddress.getAllByName(normalized)) {
-                    resolvedEntries.add(address.getHostAddress());
-                }
-            } catch (Exception ignored) {
-                resolvedEntries.add(normalized);
+                hook = ChildHandlerHook.install(serverChannel, INJECTOR_NAME, childInitializer);
+            } catch (Exception e) {
+                logger.warn("无法在监听 " + serverChannel.localAddress() + " 上安装检测器: ", e);
+                continue;
+            }
+            if (hook != null) {
+                childHandlerHooks.put(serverChannel, hook);
+                serverChannel.closeFuture().addListener(closed -> childHandlerHooks.remove(serverChannel));
             }
+            logger.info(ListenerTuning.apply(serverChannel, runtime.policy().settings()));
+            trackChannel(injectedServerChannels, serverChannel);
         }
-        return resolvedEntries;
     }
 
-    private void injectNetty() throws Exception {
+    /**
+     * 封禁与限速检查，在服务端的 childHandler 之前执行，被拒绝的连接不会构建服务端的 pipeline。
+     */
+    private boolean admitChild(Channel childChannel) {
+        return !nettyActive || LocalChannels.isLocal(childChannel) || runtime.allowConnection(childChannel.remoteAddress());
+    }
+
+    /**
+     * 在子连接自己的事件循环上执行，Velocity 的 childHandler 此时已完成初始化（包括把原生 HAProxyMessageDecoder 放到最前面）：
+     * 把检测 handler 加到更前面。
+     */
+    private void initChild(Channel childChannel) {
+        if (!nettyActive) {
+            return;
+        }
+        if (LocalChannels.isLocal(childChannel)) {
+            runtime.metrics().record(DetectorMetrics.Outcome.LOCAL, 0);
+            return;
+        }
+
+        ChannelPipeline pipeline = childChannel.pipeline();
+        if (pipeline.get(CONNECTION_HANDLER_NAME) == null) {
+            pipeline.addFirst(CONNECTION_HANDLER_NAME, connectionHandler);
+        }
+    }
+
+    private List<Field> findListenerFields(Object proxyServer) throws Exception {
+        Field managerField = null;
         Object cm = null;
-        for (Field field : server.getClass().getDeclaredFields()) {
+        for (Field field : proxyServer.getClass().getDeclaredFields()) {
             if (field.getType().getSimpleName().contains("ConnectionManager")) {
                 field.setAccessible(true);
-                cm = field.get(server);
+                managerField = field;
+                cm = field.get(proxyServer);
                 break;
             }
         }
 
         if (cm == null) {
-            return;
+            return null;
         }
 
         for (Field field : cm.getClass().getDeclaredFields()) {
             if (List.class.isAssignableFrom(field.getType())) {
                 field.setAccessible(true);
-                List<?> list = (List<?>) field.get(cm);
-                if (list != null && !list.isEmpty() && list.get(0) instanceof ChannelFuture) {
-                    List<ChannelFuture> futures = (List<ChannelFuture>) list;
-                    for (ChannelFuture future : futures) {
-                        Channel serverChannel = future.channel();
-                        if (serverChannel.pipeline().get(INJECTOR_NAME) == null) {
-                            serverChannel.pipeline().addFirst(INJECTOR_NAME, new ServerInjectHandler());
-                        }
-                        trackChannel(injectedServerChannels, serverChannel);
-                    }
-                    break;
+                if (ListenerLocator.isChannelFutureList(field, field.get(cm))) {
+                    return List.of(managerField, field);
                 }
             }
         }
+        return null;
     }
 
     private void trackChannel(Set<Channel> channelSet, Channel channel) {
@@ -224,317 +347,82 @@ public class HAProxyDetectorVelocity {
     }
 
     private void detachNetty() {
-        for (Channel channel : new ArrayList<>(injectedChildChannels)) {
-            removeHandler(channel, CONNECTION_HANDLER_NAME);
+        if (runtime != null) {
+            runtime.detach();
         }
-        injectedChildChannels.clear();
 
-        for (Channel channel : new ArrayList<>(injectedServerChannels)) {
-            removeHandler(channel, INJECTOR_NAME);
+        for (ChildHandlerHook hook : childHandlerHooks.values()) {
+            hook.uninstall();
         }
+        childHandlerHooks.clear();
         injectedServerChannels.clear();
     }
 
-    private void removeHandler(Channel channel, String handlerName) {
-        if (channel == null) {
-            return;
-        }
-
-        Runnable removeTask = () -> {
-            try {
-                if (channel.pipeline().get(handlerName) != null) {
-                    channel.pipeline().remove(handlerName);
-                }
-            } catch (Exception ignored) {
-            }
-        };
-
-        try {
-            if (channel.eventLoop().inEventLoop()) {
-                removeTask.run();
-            } else {
-                channel.eventLoop().execute(removeTask);
-            }
-        } catch (Exception ignored) {
+    @ChannelHandler.Sharable
+    public static class HAProxyHandler extends ChannelInboundHandlerAdapter {
+        private final DetectorRuntime runtime;
+        private final FirstPacketDecider decider;
+
+        public HAProxyHandler(DetectorRuntime runtime) {
+            this.runtime = runtime;
+            // Velocity 的原生 HAProxyMessageDecoder 位于整条 pipeline 最前面，不带头的旧版 Ping、Geyser 与其它协议都会被它拒绝，
+            // 因此直连一律带上伪造头；统计上仍按首包类型计数，与 Paper 的各项含义保持一致。
+            this.decider = new FirstPacketDecider(runtime, "haproxydetectorvelocity", true);
         }
-    }
 
-    private class ServerInjectHandler extends ChannelInboundHandlerAdapter {
         @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-            if (!nettyActive) {
-                removeHandler(ctx.channel(), INJECTOR_NAME);
-                super.channelRead(ctx, msg);
-                return;
-            }
-
-            if (msg instanceof Channel childChannel) {
-                if (childChannel.pipeline().get(CONNECTION_HANDLER_NAME) == null) {
-                    childChannel.pipeline().addFirst(CONNECTION_HANDLER_NAME, new HAProxyHandler(logger, whitelistEnabled, whitelist));
-                    trackChannel(injectedChildChannels, childChannel);
-                }
-            }
-            super.channelRead(ctx, msg);
-        }
-    }
-
-    public static class HAProxyHandler extends ChannelInboundHandlerAdapter {
-        private final Logger logger;
-        private final boolean whitelistEnabled;
-        private final List<String> whitelist;
-        private static final AttributeKey<Boolean> SYNTHETIC_PROXY_MARK = AttributeKey.valueOf("haproxydetectorvelocity.synthetic-proxy");
-        private static final byte[] V2_SIG = {
-                0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A
-        };
-
-        public HAProxyHandler(Logger logger, boolean whitelistEnabled, List<String> whitelist) {
-            this.logger = logger;
-            this.whitelistEnabled = whitelistEnabled;
-            this.whitelist = new ArrayList<>(whitelist);
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            decider.handlerAdded(ctx);
         }
 
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-            if (msg instanceof ByteBuf) {
-                ByteBuf buf = (ByteBuf) msg;
-                if (buf.readableBytes() < 6) {
-                    super.channelRead(ctx, msg);
-                    return;
-                }
-
-                buf.markReaderIndex();
-                try {
-                    int res = isHAProxy(buf);
-                    if (res == 1) {
-                        if (consumeSyntheticProxyMark(ctx)) {
-                            ctx.pipeline().remove(this);
-                        } else {
-                            SocketAddress remoteAddr = ctx.channel().remoteAddress();
-                            String frpsIp = getSocketIp(remoteAddr);
-                            if (whitelistEnabled && !isWhitelisted(frpsIp)) {
-                                String clientIp = extractProxyClientIp(buf);
-                                logger.warn("拦截非白名单 frps 连接: frps={}, client={}", frpsIp, clientIp);
-                                ctx.close();
-                                return;
-                            }
-                            ctx.pipeline().remove(this);
-                        }
-                    } else {
-                        SocketAddress remoteAddr = ctx.channel().remoteAddress();
-                        if (remoteAddr instanceof InetSocketAddress inetAddr) {
-                            ByteBuf fakeHeader = createV2Header(inetAddr);
-                            ByteBuf combined = Unpooled.wrappedBuffer(fakeHeader, buf.retain());
-                            ctx.channel().attr(SYNTHETIC_PROXY_MARK).set(Boolean.TRUE);
-                            ctx.pipeline().remove(this);
-                            ctx.fireChannelRead(combined);
-                            return;
-                        }
-                        ctx.pipeline().remove(this);
-                    }
-                } finally {
-                    buf.resetReaderIndex();
-                }
-            }
-            super.channelRead(ctx, msg);
-        }
-
-        private boolean consumeSyntheticProxyMark(ChannelHandlerContext ctx) {
-            return Boolean.TRUE.equals(ctx.channel().attr(SYNTHETIC_PROXY_MARK).getAndSet(null));
-        }
-
-        private int isHAProxy(ByteBuf buf) {
-            int readerIndex = buf.readerIndex();
-            int readableBytes = buf.readableBytes();
-
-            if (matchesV1Signature(buf, readerIndex, readableBytes)) {
-                return 1;
-            }
-
-            if (matchesV2Signature(buf, readerIndex, readableBytes)) {
-                return 1;
+            if (!runtime.attached()) {
+                ctx.pipeline().remove(this);
+                ctx.fireChannelRead(msg);
+                return;
             }
 
-            return 0;
-        }
-
-        private ByteBuf createV2Header(InetSocketAddress addr) {
-            boolean isIPv6 = addr.getAddress() instanceof java.net.Inet6Address;
-            int addressLen = isIPv6 ? 32 : 12;
-
-            ByteBuf header = Unpooled.buffer(16 + addressLen);
-            header.writeBytes(V2_SIG);
-            header.writeByte(0x21);
-
-            if (isIPv6) {
-                header.writeByte(0x21);
-                header.writeShort(36);
-                header.writeBytes(addr.getAddress().getAddress());
-                header.writeBytes(new byte[16]);
-                header.setByte(header.writerIndex() - 1, 1);
-            } else {
-                header.writeByte(0x11);
-                header.writeShort(12);
-                header.writeBytes(addr.getAddress().getAddress());
-                header.writeBytes(new byte[]{127, 0, 0, 1});
+            if (!(msg instanceof ByteBuf)) {
+                super.channelRead(ctx, msg);
+                return;
             }
 
-            header.writeShort(addr.getPort());
-            header.writeShort(25565);
-            return header;
-        }
-
-        private boolean isWhitelisted(String ip) {
-            if (ip == null || ip.isEmpty()) {
-                return false;
+            ByteBuf buf = decider.accumulate(ctx, (ByteBuf) msg);
+            if (buf == null) {
+                return;
             }
 
-            for (String entry : whitelist) {
-                if (entry.contains("/")) {
-                    if (matchCIDR(ip, entry)) {
-                        return true;
-                    }
-                } else if (entry.equalsIgnoreCase(ip)) {
-                    return true;
+            switch (decider.decide(ctx, buf)) {
+                case CLOSE -> ctx.close();
+                case FORWARD -> {
+                    ctx.pipeline().remove(this);
+                    ctx.fireChannelRead(buf);
                 }
-            }
-            return false;
-        }
-
-        private boolean matchCIDR(String ip, String cidr) {
-            try {
-                String[] parts = cidr.split("/");
-                String network = parts[0];
-                int prefix = Integer.parseInt(parts[1]);
-
-                InetAddress addr = InetAddress.getByName(ip);
-                InetAddress netAddr = InetAddress.getByName(network);
-
-                byte[] addrBytes = addr.getAddress();
-                byte[] netBytes = netAddr.getAddress();
-
-                if (addrBytes.length != netBytes.length) {
-                    return false;
-                }
-
-                int fullBytes = prefix / 8;
-                int remainingBits = prefix % 8;
-
-                for (int i = 0; i < fullBytes; i++) {
-                    if (addrBytes[i] != netBytes[i]) {
-                        return false;
+                case SYNTHETIC -> {
+                    HAProxyMessage message = decider.directMessage(ctx);
+                    ByteBuf combined = message == null ? decider.syntheticHeader(ctx, buf) : buf;
+                    ctx.pipeline().remove(this);
+                    if (message != null) {
+                        ctx.fireChannelRead(message);
                     }
+                    ctx.fireChannelRead(combined);
                 }
-
-                if (remainingBits > 0) {
-                    int mask = (0xFF << (8 - remainingBits)) & 0xFF;
-                    return (addrBytes[fullBytes] & mask) == (netBytes[fullBytes] & mask);
-                }
-
-                return true;
-            } catch (Exception e) {
-                return false;
-            }
-        }
-
-        private boolean matchesV1Signature(ByteBuf buf, int readerIndex, int readableBytes) {
-            return readableBytes >= 6
-                    && buf.getByte(readerIndex) == 'P'
-                    && buf.getByte(readerIndex + 1) == 'R'
-                    && buf.getByte(readerIndex + 2) == 'O'
-                    && buf.getByte(readerIndex + 3) == 'X'
-                    && buf.getByte(readerIndex + 4) == 'Y'
-                    && buf.getByte(readerIndex + 5) == ' ';
-        }
-
-        private boolean matchesV2Signature(ByteBuf buf, int readerIndex, int readableBytes) {
-            if (readableBytes < 12) {
-                return false;
-            }
-
-            for (int i = 0; i < V2_SIG.length; i++) {
-                if (buf.getByte(readerIndex + i) != V2_SIG[i]) {
-                    return false;
-                }
-            }
-
-            return true;
-        }
-
-        private String getSocketIp(SocketAddress remoteAddr) {
-            if (remoteAddr instanceof InetSocketAddress inetSocketAddress) {
-                InetAddress address = inetSocketAddress.getAddress();
-                if (address != null) {
-                    return address.getHostAddress();
-                }
-                return inetSocketAddress.getHostString();
             }
-            return "unknown";
         }
 
-        private String extractProxyClientIp(ByteBuf buf) {
-            int readerIndex = buf.readerIndex();
-            int readableBytes = buf.readableBytes();
-
-            if (matchesV1Signature(buf, readerIndex, readableBytes)) {
-                int lineEnd = findLineEnd(buf, readerIndex, readableBytes);
-                int length = lineEnd == -1 ? readableBytes : lineEnd - readerIndex;
-                String header = buf.toString(readerIndex, length, StandardCharsets.US_ASCII).trim();
-                String[] parts = header.split("\\s+");
-                if (parts.length >= 3) {
-                    return parts[2];
-                }
-                return "unknown";
-            }
-
-            if (!matchesV2Signature(buf, readerIndex, readableBytes) || readableBytes < 16) {
-                return "unknown";
-            }
-
-            try {
-                int versionCommand = buf.getUnsignedByte(readerIndex + 12);
-                if ((versionCommand >> 4) != 0x2) {
-                    return "unknown";
-                }
-
-                int familyProtocol = buf.getUnsignedByte(readerIndex + 13);
-                int headerLength = buf.getUnsignedShort(readerIndex + 14);
-                if (readableBytes < 16 + headerLength) {
-                    return "unknown";
-                }
-
-                int family = familyProtocol & 0xF0;
-                if (family == 0x10) {
-                    if (headerLength < 12) {
-                        return "unknown";
-                    }
-                    byte[] source = new byte[4];
-                    buf.getBytes(readerIndex + 16, source);
-                    return InetAddress.getByAddress(source).getHostAddress();
-                }
-
-                if (family == 0x20) {
-                    if (headerLength < 36) {
-                        return "unknown";
-                    }
-                    byte[] source = new byte[16];
-                    buf.getBytes(readerIndex + 16, source);
-                    return InetAddress.getByAddress(source).getHostAddress();
-                }
-            } catch (Exception ignored) {
-                return "unknown";
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+            ByteBuf pending = decider.handlerRemoved(ctx);
+            if (pending != null) {
+                ctx.fireChannelRead(pending);
             }
-
-            return "unknown";
         }
 
-        private int findLineEnd(ByteBuf buf, int readerIndex, int readableBytes) {
-            int maxIndex = readerIndex + readableBytes - 1;
-            for (int i = readerIndex; i < maxIndex; i++) {
-                if (buf.getByte(i) == '\r' && buf.getByte(i + 1) == '\n') {
-                    return i;
-                }
-            }
-            return -1;
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            decider.channelInactive(ctx);
+            super.channelInactive(ctx);
         }
     }
 }
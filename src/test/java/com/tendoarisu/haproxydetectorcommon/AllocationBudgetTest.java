@@ -0,0 +1,158 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import com.sun.management.ThreadMXBean;
+import com.tendoarisu.haproxydetectorpaper.HAProxyHandler;
+import com.tendoarisu.haproxydetectorvelocity.HAProxyDetectorVelocity;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 每连接分配预算：用 BenchmarkChannel 逐类首包跑完整的检测流程，按 ThreadMXBean 统计当前线程分配的字节数，
+ * 减去挂一个收到首包即移除自身的空 handler 时同样建连、写入、读出的分配量，得到检测逻辑本身每条连接的分配；
+ * 超过 allocation-budget.properties 中的预算时测试失败。基线与检测器走同样的 pipeline 形状（一个 handler、首包时移除），
+ * 两边的 JIT 结果一致，差值不会随基线的编译情况摆动。
+ * 测量前先把所有首包类型在基线与两个平台的 handler 下各跑一遍预热，之后按轮交替测量全部组合，每个组合取 ROUNDS 轮的中位数。
+ * 每次测量都使用新的运行时：封禁关闭，拦截日志的汇总间隔远大于测量时长，拦截队列从空开始，前一次测量留下的状态不会影响下一次。
+ */
+class AllocationBudgetTest {
+    private static final int WARMUP_CONNECTIONS = 50_000;
+    private static final int MEASURED_CONNECTIONS = 50_000;
+    private static final int ROUNDS = 5;
+    private static final List<String> PLATFORMS = List.of("paper", "velocity");
+    private static final List<Function<DetectorRuntime, ChannelHandler>> HANDLERS = List.of(
+        runtime -> PassThrough.INSTANCE, HAProxyHandler::new, HAProxyDetectorVelocity.HAProxyHandler::new);
+
+    /**
+     * 基线 handler：与检测器一样在首包时移除自身并原样放行。
+     */
+    @ChannelHandler.Sharable
+    private static final class PassThrough extends ChannelInboundHandlerAdapter {
+        private static final PassThrough INSTANCE = new PassThrough();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private record Case(String name, SocketAddress remote, byte[][] segments) {
+    }
+
+    @Test
+    void perConnectionAllocationsStayWithinBudget() throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "当前 JVM 不支持按线程统计分配量");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        Properties budgets = loadBudgets();
+
+        List<Case> cases = cases();
+        for (Case testCase : cases) {
+            for (int h = 0; h < HANDLERS.size(); h++) {
+                measure(threads, testCase, h, WARMUP_CONNECTIONS);
+            }
+        }
+
+        long[][][] rounds = new long[cases.size()][HANDLERS.size()][ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int c = 0; c < cases.size(); c++) {
+                for (int h = 0; h < HANDLERS.size(); h++) {
+                    rounds[c][h][round] = measure(threads, cases.get(c), h, MEASURED_CONNECTIONS);
+                }
+            }
+        }
+
+        List<Executable> checks = new ArrayList<>();
+        System.out.printf(Locale.ROOT, "%-28s %10s %10s %10s%n", "case", "B/conn", "budget", "baseline");
+        for (int c = 0; c < cases.size(); c++) {
+            long baseline = median(rounds[c][0]);
+            for (int p = 0; p < PLATFORMS.size(); p++) {
+                String key = PLATFORMS.get(p) + "." + cases.get(c).name();
+                long perConnection = median(rounds[c][p + 1]) - baseline;
+                String budgetValue = budgets.getProperty(key);
+                System.out.printf(Locale.ROOT, "%-28s %10d %10s %10d%n", key, perConnection,
+                    budgetValue == null ? "-" : budgetValue.trim(), baseline);
+                checks.add(() -> {
+                    assertNotNull(budgetValue, key + " 没有配置预算");
+                    long budget = Long.parseLong(budgetValue.trim());
+                    assertTrue(perConnection <= budget, key + ": " + perConnection + " B/conn > " + budget);
+                });
+            }
+        }
+        assertAll(checks);
+    }
+
+    private static List<Case> cases() {
+        byte[] handshake = BenchmarkPackets.handshake();
+        byte[] proxyV2 = BenchmarkPackets.proxyV2(BenchmarkPackets.PLAYER_V4);
+        return List.of(
+            new Case("direct-v4", BenchmarkPackets.PLAYER_V4, new byte[][]{handshake}),
+            new Case("direct-v6", BenchmarkPackets.PLAYER_V6, new byte[][]{handshake}),
+            new Case("proxy-v1", BenchmarkPackets.FRPS_V4, new byte[][]{BenchmarkPackets.proxyV1(BenchmarkPackets.PLAYER_V4)}),
+            new Case("proxy-v2", BenchmarkPackets.FRPS_V4, new byte[][]{proxyV2}),
+            new Case("proxy-v2-fragmented", BenchmarkPackets.FRPS_V4,
+                new byte[][]{Arrays.copyOfRange(proxyV2, 0, 7), Arrays.copyOfRange(proxyV2, 7, proxyV2.length)}),
+            new Case("geyser", BenchmarkPackets.PLAYER_V4, new byte[][]{{0x7F, 0x01, 0x00, 0x00}}),
+            new Case("legacy-ping", BenchmarkPackets.PLAYER_V4, new byte[][]{{(byte) 0xFE, 0x01}}),
+            new Case("blocked", BenchmarkPackets.UNLISTED_V4, new byte[][]{proxyV2})
+        );
+    }
+
+    /**
+     * 在新的运行时上跑 connections 条连接，返回平均每条连接分配的字节数。运行时与 handler 的创建、关闭都不计入。
+     */
+    private static long measure(ThreadMXBean threads, Case testCase, int handlerIndex, int connections) throws Exception {
+        DetectorRuntime runtime = BenchmarkPackets.runtime(DetectorSettings.from(Map.of(
+            "whitelist", List.of("198.51.100.0/24"),
+            "auto-reload", false,
+            "first-packet-timeout", 0,
+            "ban-threshold", 0,
+            "block-log-interval", 3600)));
+        try {
+            ChannelHandler handler = HANDLERS.get(handlerIndex).apply(runtime);
+            long threadId = Thread.currentThread().threadId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < connections; i++) {
+                BenchmarkChannel.drive(testCase.remote(), handler, testCase.segments());
+            }
+            return (threads.getThreadAllocatedBytes(threadId) - before) / connections;
+        } finally {
+            runtime.shutdown();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = AllocationBudgetTest.class.getResourceAsStream("/allocation-budget.properties")) {
+            assertNotNull(in, "缺少 allocation-budget.properties");
+            budgets.load(in);
+        }
+        return budgets;
+    }
+}
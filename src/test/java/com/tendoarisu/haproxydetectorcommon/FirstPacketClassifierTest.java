@@ -0,0 +1,119 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 首包分类：每类首包按字节逐个截断，能判定类型之前必须返回 INCOMPLETE，判定点及之后的前缀都得到同一类型。
+ */
+class FirstPacketClassifierTest {
+
+    @Test
+    void proxyV1IsDecidedOnceTheSignatureIsComplete() {
+        assertSplitPrefixes(ascii("PROXY TCP4 203.0.113.7 198.51.100.1 51234 25565\r\n"),
+            ProxyProtocol.V1_SIG_LENGTH, FirstPacketType.PROXY_V1);
+    }
+
+    @Test
+    void proxyV2IsDecidedOnceTheSignatureIsComplete() {
+        byte[] header = Arrays.copyOf(ProxyProtocol.V2_SIG, ProxyProtocol.V2_HEADER_LENGTH);
+        header[12] = 0x21;
+        header[13] = 0x11;
+        assertSplitPrefixes(header, ProxyProtocol.V2_SIG_LENGTH, FirstPacketType.PROXY_V2);
+    }
+
+    @Test
+    void tlsNeedsTheMinorVersion() {
+        assertSplitPrefixes(new byte[]{0x16, 0x03, 0x01, 0x02, 0x00}, 3, FirstPacketType.TLS);
+    }
+
+    @Test
+    void httpMethodsAndSshNeedFourBytes() {
+        for (String method : new String[]{"GET ", "POST", "HEAD", "PUT ", "DELE", "OPTI", "PATC", "CONN", "TRAC", "PRI "}) {
+            assertSplitPrefixes(ascii(method + "/ HTTP/1.1\r\n"), 4, FirstPacketType.HTTP);
+        }
+        assertSplitPrefixes(ascii("SSH-2.0-OpenSSH_9.6\r\n"), 4, FirstPacketType.SSH);
+    }
+
+    @Test
+    void minecraftHandshakeWithSingleByteLength() {
+        assertSplitPrefixes(new byte[]{0x10, 0x00, (byte) 0xFD, 0x05}, 2, FirstPacketType.MINECRAFT);
+    }
+
+    @Test
+    void minecraftHandshakeWithMultiByteLength() {
+        assertSplitPrefixes(new byte[]{(byte) 0x80, 0x01, 0x00, (byte) 0xFD, 0x05}, 3, FirstPacketType.MINECRAFT);
+    }
+
+    @Test
+    void geyserIsDecidedByTheByteAfterTheLength() {
+        assertSplitPrefixes(new byte[]{0x7F, 0x01, 0x00, 0x00}, 2, FirstPacketType.GEYSER);
+        assertSplitPrefixes(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}, 3, FirstPacketType.GEYSER);
+    }
+
+    @Test
+    void legacyPingAndZeroLengthAreDecidedByTheFirstByte() {
+        assertSplitPrefixes(new byte[]{(byte) 0xFE, 0x01, (byte) 0xFA}, 1, FirstPacketType.LEGACY_PING);
+        assertSplitPrefixes(new byte[]{0x00, 0x00}, 1, FirstPacketType.MINECRAFT);
+    }
+
+    @Test
+    void tlsMinorVersionEdges() {
+        assertEquals(FirstPacketType.TLS, classify(0x16, 0x03, 0x00));
+        assertEquals(FirstPacketType.TLS, classify(0x16, 0x03, 0x04));
+        assertNotEquals(FirstPacketType.TLS, classify(0x16, 0x03, 0x05));
+        assertNotEquals(FirstPacketType.TLS, classify(0x16, 0x03, 0xFF));
+        assertNotEquals(FirstPacketType.TLS, classify(0x16, 0x02, 0x01));
+        assertNotEquals(FirstPacketType.TLS, classify(0x16, 0x04, 0x01));
+    }
+
+    @Test
+    void divergingPrefixesAreNotHeldBack() {
+        assertNotEquals(FirstPacketType.INCOMPLETE, classify('P', 'R', 'X'));
+        assertNotEquals(FirstPacketType.INCOMPLETE, classify('G', 'X'));
+        assertNotEquals(FirstPacketType.INCOMPLETE, classify(0x0D, 0x0A, 0x0D, 0x0B));
+        assertNotEquals(FirstPacketType.PROXY_V1, classify(ascii("PROXY_TCP4")));
+    }
+
+    @Test
+    void classificationDoesNotMoveTheReaderIndex() {
+        var buf = Unpooled.wrappedBuffer(new byte[]{0x05, 0x16, 0x03, 0x01});
+        buf.readerIndex(1);
+        assertEquals(FirstPacketType.TLS, FirstPacketClassifier.classify(buf));
+        assertEquals(1, buf.readerIndex());
+    }
+
+    /**
+     * 长度小于 decidedAt 的前缀都返回 INCOMPLETE，之后的前缀直到整个包都返回 expected，且判定不超过 MAX_PREFIX 字节。
+     */
+    private static void assertSplitPrefixes(byte[] packet, int decidedAt, FirstPacketType expected) {
+        assertTrue(decidedAt <= FirstPacketClassifier.MAX_PREFIX, "decidedAt > MAX_PREFIX");
+        for (int length = 0; length <= packet.length; length++) {
+            FirstPacketType type = classify(Arrays.copyOf(packet, length));
+            assertEquals(length < decidedAt ? FirstPacketType.INCOMPLETE : expected, type, "prefix length " + length);
+        }
+    }
+
+    private static FirstPacketType classify(int... bytes) {
+        byte[] packet = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            packet[i] = (byte) bytes[i];
+        }
+        return classify(packet);
+    }
+
+    private static FirstPacketType classify(byte[] packet) {
+        return FirstPacketClassifier.classify(Unpooled.wrappedBuffer(packet));
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,190 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 地址格式化（点分 IPv4、RFC 5952 IPv6 与 IPv4 映射地址）以及 v1 / v2 头的地址解析。
+ */
+class ProxyAddressTest {
+    private static final int INET = ProxyHeaderInfo.FAMILY_INET;
+    private static final int INET6 = ProxyHeaderInfo.FAMILY_INET6;
+
+    @Test
+    void formatsIpv4AsDottedDecimal() {
+        assertEquals("192.0.2.1", ProxyAddress.format(INET, 0, 0xC0000201L));
+        assertEquals("0.0.0.0", ProxyAddress.format(INET, 0, 0));
+        assertEquals("255.255.255.255", ProxyAddress.format(INET, 0, 0xFFFFFFFFL));
+    }
+
+    @Test
+    void formatsIpv4MappedAddressesWithDottedTail() {
+        assertEquals("::ffff:192.0.2.1", ProxyAddress.format(INET6, 0, 0x0000FFFFC0000201L));
+        assertEquals("::ffff:0.0.0.0", ProxyAddress.format(INET6, 0, 0x0000FFFF00000000L));
+        // 只有 ::ffff:0:0/96 按映射地址输出，其它前缀仍是普通的十六进制分组
+        assertEquals("::c000:201", ProxyAddress.format(INET6, 0, 0xC0000201L));
+        assertEquals("::1:ffff:c000:201", ProxyAddress.format(INET6, 0, 0x0001FFFFC0000201L));
+    }
+
+    @Test
+    void compressesTheLongestZeroRun() {
+        assertEquals("2001:db8::1", ProxyAddress.format(INET6, 0x20010DB800000000L, 1));
+        assertEquals("2001:0:0:1::1", ProxyAddress.format(INET6, 0x2001000000000001L, 1));
+        assertEquals("::", ProxyAddress.format(INET6, 0, 0));
+        assertEquals("::1", ProxyAddress.format(INET6, 0, 1));
+        assertEquals("1::", ProxyAddress.format(INET6, 0x0001000000000000L, 0));
+    }
+
+    @Test
+    void compressesTheFirstOfEqualRuns() {
+        assertEquals("2001:db8::1:0:0:1", ProxyAddress.format(INET6, 0x20010DB800000000L, 0x0001000000000001L));
+    }
+
+    @Test
+    void leavesSingleZeroGroupsUncompressed() {
+        assertEquals("2001:db8:0:1:1:1:1:1", ProxyAddress.format(INET6, 0x20010DB800000001L, 0x0001000100010001L));
+        assertEquals("1:0:1:0:1:0:1:0", ProxyAddress.format(INET6, 0x0001000000010000L, 0x0001000000010000L));
+    }
+
+    @Test
+    void usesLowercaseWithoutLeadingZeros() {
+        assertEquals("abcd:ef::a:b", ProxyAddress.format(INET6, 0xABCD00EF00000000L, 0x00000000000A000BL));
+    }
+
+    @Test
+    void unknownFamilyFormatsAsUnknown() {
+        assertEquals("unknown", ProxyAddress.format(ProxyHeaderInfo.FAMILY_UNSPEC, 0, 1));
+        assertEquals("unknown", ProxyAddress.format(ProxyHeaderInfo.FAMILY_UNIX, 0, 1));
+        assertEquals("unknown", new ProxyAddress().toString());
+    }
+
+    @Test
+    void parsesV1Tcp4() {
+        ProxyAddress address = parsed(v1("TCP4 203.0.113.7 198.51.100.1 51234 25565"));
+        assertEquals(INET, address.family());
+        assertEquals(0xCB007107L, address.sourceLow());
+        assertEquals("203.0.113.7", address.sourceText());
+        assertEquals("198.51.100.1", address.destinationText());
+        assertEquals(51234, address.sourcePort());
+        assertEquals(25565, address.destinationPort());
+        assertEquals("203.0.113.7:51234 -> 198.51.100.1:25565", address.toString());
+    }
+
+    @Test
+    void parsesV1Tcp6WithCompressionAndEmbeddedIpv4() {
+        ProxyAddress address = parsed(v1("TCP6 2001:DB8::1 ::ffff:192.0.2.1 1 65535"));
+        assertEquals(INET6, address.family());
+        assertEquals(0x20010DB800000000L, address.sourceHigh());
+        assertEquals(1, address.sourceLow());
+        assertEquals("2001:db8::1", address.sourceText());
+        assertEquals("::ffff:192.0.2.1", address.destinationText());
+        assertEquals("[2001:db8::1]:1 -> [::ffff:192.0.2.1]:65535", address.toString());
+
+        assertEquals("::", parsed(v1("TCP6 :: ::1 1 2")).sourceText());
+        assertEquals("1::", parsed(v1("TCP6 1:: ::1 1 2")).sourceText());
+        assertEquals("1:2:3:4:5:6:7:8", parsed(v1("TCP6 1:2:3:4:5:6:7:8 ::1 1 2")).sourceText());
+    }
+
+    @Test
+    void rejectsMalformedV1Addresses() {
+        assertRejected(v1("UNKNOWN"));
+        assertRejected(v1("TCP4 256.0.0.1 198.51.100.1 1 2"));
+        assertRejected(v1("TCP4 203.0.113 198.51.100.1 1 2"));
+        assertRejected(v1("TCP4 203.0.113.7 198.51.100.1 65536 2"));
+        assertRejected(v1("TCP4 203.0.113.7  198.51.100.1 1 2"));
+        assertRejected(v1("TCP6 1::2::3 ::1 1 2"));
+        assertRejected(v1("TCP6 1:2:3:4:5:6:7:8:9 ::1 1 2"));
+        assertRejected(v1("TCP6 1:2:3:4:5:6:7 ::1 1 2"));
+        assertRejected(v1("TCP6 12345:: ::1 1 2"));
+        assertRejected(ascii("PROXY TCP4 203.0.113.7 198.51.100.1 1 2\n"));
+        assertRejected(ascii("PROXY TCP4 203.0.113.7 198.51.100.1 1 2"));
+    }
+
+    @Test
+    void parsesV2Inet() {
+        ByteBuf header = v2(0x21, 0x11, 12);
+        header.writeInt(0xCB007107).writeInt(0xC6336401).writeShort(51234).writeShort(25565);
+        ProxyAddress address = parsed(header);
+        assertEquals("203.0.113.7:51234 -> 198.51.100.1:25565", address.toString());
+    }
+
+    @Test
+    void parsesV2Inet6AndSkipsTlvs() {
+        ByteBuf header = v2(0x21, 0x21, 36 + 3);
+        header.writeLong(0x20010DB800000000L).writeLong(1).writeLong(0).writeLong(0x0000FFFFC0000201L)
+            .writeShort(1).writeShort(2).writeByte(ProxyHeaderInfo.PP2_TYPE_NOOP).writeShort(0);
+        ProxyAddress address = parsed(header);
+        assertEquals("[2001:db8::1]:1 -> [::ffff:192.0.2.1]:2", address.toString());
+    }
+
+    @Test
+    void rejectsV2WithoutAddress() {
+        ByteBuf local = v2(0x20, 0x11, 12);
+        local.writeZero(12);
+        assertRejected(local);
+
+        ByteBuf unix = v2(0x21, 0x31, 216);
+        unix.writeZero(216);
+        assertRejected(unix);
+
+        ByteBuf shortInet = v2(0x21, 0x11, 8);
+        shortInet.writeZero(8);
+        assertRejected(shortInet);
+
+        ByteBuf truncated = v2(0x21, 0x11, 12);
+        truncated.writeZero(11);
+        assertRejected(truncated);
+    }
+
+    @Test
+    void failedParseClearsThePreviousAddress() {
+        ProxyAddress address = parsed(v1("TCP4 203.0.113.7 198.51.100.1 1 2"));
+        assertFalse(address.parse(Unpooled.wrappedBuffer(v1("TCP4 bad 198.51.100.1 1 2"))));
+        assertFalse(address.hasAddress());
+        assertEquals(0, address.sourceLow());
+        assertEquals(0, address.sourcePort());
+    }
+
+    private static ProxyAddress parsed(byte[] header) {
+        return parsed(Unpooled.wrappedBuffer(header));
+    }
+
+    private static ProxyAddress parsed(ByteBuf header) {
+        ProxyAddress address = new ProxyAddress();
+        int readerIndex = header.readerIndex();
+        assertTrue(address.parse(header), () -> header.toString(StandardCharsets.US_ASCII));
+        assertTrue(address.hasAddress());
+        assertEquals(readerIndex, header.readerIndex());
+        return address;
+    }
+
+    private static void assertRejected(byte[] header) {
+        assertRejected(Unpooled.wrappedBuffer(header));
+    }
+
+    private static void assertRejected(ByteBuf header) {
+        ProxyAddress address = new ProxyAddress();
+        assertFalse(address.parse(header), () -> header.toString(StandardCharsets.US_ASCII));
+        assertEquals(ProxyHeaderInfo.FAMILY_UNSPEC, address.family());
+    }
+
+    private static byte[] v1(String body) {
+        return ascii("PROXY " + body + "\r\n");
+    }
+
+    private static ByteBuf v2(int versionCommand, int familyProtocol, int length) {
+        return Unpooled.buffer().writeBytes(ProxyProtocol.V2_SIG)
+            .writeByte(versionCommand).writeByte(familyProtocol).writeShort(length);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,200 @@
+package com.tendoarisu.haproxydetectorcommon;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PROXY 头结构检查：每个拒绝原因至少一例，以及 v1 行长上限与 v2 声明长度、地址族不一致的边界。
+ */
+class ProxyHeaderValidatorTest {
+    private static final String TCP6_MAX = "PROXY TCP6 ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff 65535 65535\r\n";
+
+    @Test
+    void acceptsWellFormedV1Lines() {
+        assertValidV1("PROXY TCP4 203.0.113.7 198.51.100.1 51234 25565\r\n");
+        assertValidV1("PROXY TCP6 2001:db8::1 ::FFFF:192.0.2.1 1 65535\r\n");
+        assertValidV1("PROXY UNKNOWN\r\n");
+        assertValidV1("PROXY UNKNOWN ignored by the spec\r\n");
+        assertValidV1(TCP6_MAX);
+    }
+
+    @Test
+    void v1LineOf107BytesIsAcceptedAnd108IsTooLong() {
+        String line107 = unknownLine(ProxyProtocol.V1_MAX_LENGTH);
+        assertEquals(107, line107.length());
+        assertValidV1(line107);
+
+        String line108 = unknownLine(ProxyProtocol.V1_MAX_LENGTH + 1);
+        assertTrue(ProxyHeaderValidator.isComplete(v1(line108), FirstPacketType.PROXY_V1));
+        assertEquals(ProxyHeaderValidator.Reason.V1_TOO_LONG, validateV1(line108));
+    }
+
+    @Test
+    void v1WithoutLineFeedWaitsUntilTheLengthLimit() {
+        String unterminated = unknownLine(ProxyProtocol.V1_MAX_LENGTH).substring(0, ProxyProtocol.V1_MAX_LENGTH - 1);
+        assertFalse(ProxyHeaderValidator.isComplete(v1(unterminated), FirstPacketType.PROXY_V1));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_LINE_END, validateV1(unterminated));
+
+        String full = unterminated + "x";
+        assertTrue(ProxyHeaderValidator.isComplete(v1(full), FirstPacketType.PROXY_V1));
+        assertEquals(ProxyHeaderValidator.Reason.V1_TOO_LONG, validateV1(full));
+    }
+
+    @Test
+    void rejectsV1LineEndWithoutCarriageReturn() {
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_LINE_END, validateV1("PROXY TCP4 203.0.113.7 198.51.100.1 1 2\n"));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_LINE_END, validateV1("PROXY UNKNOWN\n"));
+    }
+
+    @Test
+    void rejectsV1BadProtocol() {
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_PROTOCOL, validateV1("PROXY TCP5 203.0.113.7 198.51.100.1 1 2\r\n"));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_PROTOCOL, validateV1("PROXY UDP4 203.0.113.7 198.51.100.1 1 2\r\n"));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_PROTOCOL, validateV1("PROXY TCP4\r\n"));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_PROTOCOL, validateV1("PROXY TCP4_203.0.113.7 198.51.100.1 1 2\r\n"));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_PROTOCOL, validateV1("PROXY UNKNOWNX\r\n"));
+        assertEquals(ProxyHeaderValidator.Reason.V1_BAD_PROTOCOL, validateV1("PROXY \r\n"));
+    }
+
+    @Test
+    void rejectsV1BadFields() {
+        String[] lines = {
+            "PROXY TCP4 203.0.113.7 198.51.100.1 1\r\n",
+            "PROXY TCP4 203.0.113.7 198.51.100.1 1 2 3\r\n",
+            "PROXY TCP4 203.0.113.7  198.51.100.1 1 2\r\n",
+            "PROXY TCP4 203.0.113.7 198.51.100.1 1 2 \r\n",
+            "PROXY TCP4 2001:db8::1 198.51.100.1 1 2\r\n",
+            "PROXY TCP6 2001:db8::g ::1 1 2\r\n",
+            "PROXY TCP4 203.0.113.7 198.51.100.1 65536 2\r\n",
+            "PROXY TCP4 203.0.113.7 198.51.100.1 000001 2\r\n",
+            "PROXY TCP4 203.0.113.7 198.51.100.1 1 -2\r\n"
+        };
+        for (String line : lines) {
+            assertEquals(ProxyHeaderValidator.Reason.V1_BAD_FIELDS, validateV1(line), line);
+        }
+    }
+
+    @Test
+    void acceptsWellFormedV2Headers() {
+        assertValidV2(v2(0x21, 0x11, 12).writeZero(12));
+        assertValidV2(v2(0x21, 0x21, 36).writeZero(36));
+        assertValidV2(v2(0x21, 0x31, 216).writeZero(216));
+        assertValidV2(v2(0x21, 0x12, 12).writeZero(12));
+        assertValidV2(v2(0x20, 0x00, 0));
+        assertValidV2(v2(0x21, 0x00, 3).writeByte(ProxyHeaderInfo.PP2_TYPE_NOOP).writeShort(0));
+        assertValidV2(v2(0x21, 0x11, 12 + 5).writeZero(12).writeByte(ProxyHeaderInfo.PP2_TYPE_ALPN).writeShort(2).writeShort(0x6832));
+    }
+
+    @Test
+    void rejectsV2BadVersionAndCommand() {
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_VERSION, validateV2(v2(0x11, 0x11, 12).writeZero(12)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_VERSION, validateV2(v2(0x31, 0x11, 12).writeZero(12)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_COMMAND, validateV2(v2(0x22, 0x11, 12).writeZero(12)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_COMMAND, validateV2(v2(0x2F, 0x11, 12).writeZero(12)));
+    }
+
+    @Test
+    void rejectsV2BadFamilyOrTransport() {
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_FAMILY, validateV2(v2(0x21, 0x41, 12).writeZero(12)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_FAMILY, validateV2(v2(0x21, 0x13, 12).writeZero(12)));
+    }
+
+    @Test
+    void rejectsV2LengthShorterThanItsFamily() {
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(v2(0x21, 0x11, 8).writeZero(8)));
+        // 声明 INET6 却只带 IPv4 大小的地址块
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(v2(0x21, 0x21, 12).writeZero(12)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(v2(0x21, 0x21, 35).writeZero(35)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(v2(0x21, 0x31, 36).writeZero(36)));
+    }
+
+    @Test
+    void rejectsV2LengthBeyondTheLimitWithoutWaitingForIt() {
+        ByteBuf header = v2(0x21, 0x11, ProxyProtocol.V2_MAX_LENGTH + 1);
+        assertTrue(ProxyHeaderValidator.isComplete(header, FirstPacketType.PROXY_V2));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(header));
+
+        assertValidV2(v2(0x21, 0x11, ProxyProtocol.V2_MAX_LENGTH).writeZero(12)
+            .writeByte(ProxyHeaderInfo.PP2_TYPE_NOOP).writeShort(ProxyProtocol.V2_MAX_LENGTH - 12 - 3)
+            .writeZero(ProxyProtocol.V2_MAX_LENGTH - 12 - 3));
+    }
+
+    @Test
+    void incompleteV2IsRejectedAsBadLength() {
+        ByteBuf fixedHeaderOnly = v2(0x21, 0x11, 12);
+        ByteBuf partialFixedHeader = fixedHeaderOnly.copy(0, ProxyProtocol.V2_HEADER_LENGTH - 1);
+        assertFalse(ProxyHeaderValidator.isComplete(partialFixedHeader, FirstPacketType.PROXY_V2));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(partialFixedHeader));
+
+        ByteBuf missingAddressByte = fixedHeaderOnly.writeZero(11);
+        assertFalse(ProxyHeaderValidator.isComplete(missingAddressByte, FirstPacketType.PROXY_V2));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_LENGTH, validateV2(missingAddressByte));
+    }
+
+    @Test
+    void rejectsV2BadTlv() {
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_TLV,
+            validateV2(v2(0x21, 0x11, 12 + 2).writeZero(12).writeByte(ProxyHeaderInfo.PP2_TYPE_NOOP).writeByte(0)));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_TLV,
+            validateV2(v2(0x21, 0x11, 12 + 4).writeZero(12).writeByte(ProxyHeaderInfo.PP2_TYPE_ALPN).writeShort(2).writeByte('h')));
+        assertEquals(ProxyHeaderValidator.Reason.V2_BAD_TLV,
+            validateV2(v2(0x21, 0x11, 12 + 4).writeZero(12).writeByte(ProxyHeaderInfo.PP2_TYPE_NOOP).writeShort(0).writeByte(0)));
+    }
+
+    @Test
+    void validationDoesNotMoveTheReaderIndex() {
+        ByteBuf buf = Unpooled.buffer().writeByte(0x7F).writeBytes(ascii("PROXY UNKNOWN\r\n"));
+        buf.readerIndex(1);
+        assertNull(ProxyHeaderValidator.validate(buf, FirstPacketType.PROXY_V1));
+        assertEquals(1, buf.readerIndex());
+        assertNull(ProxyHeaderValidator.validate(buf, FirstPacketType.MINECRAFT));
+    }
+
+    /**
+     * 以 "PROXY UNKNOWN " 开头、用空格后的填充凑到 length 字节（含 CRLF）的 v1 行。
+     */
+    private static String unknownLine(int length) {
+        String prefix = "PROXY UNKNOWN ";
+        return prefix + "x".repeat(length - prefix.length() - 2) + "\r\n";
+    }
+
+    private static void assertValidV1(String line) {
+        ByteBuf buf = v1(line);
+        assertTrue(ProxyHeaderValidator.isComplete(buf, FirstPacketType.PROXY_V1), line);
+        assertNull(ProxyHeaderValidator.validate(buf, FirstPacketType.PROXY_V1), line);
+    }
+
+    private static void assertValidV2(ByteBuf header) {
+        assertTrue(ProxyHeaderValidator.isComplete(header, FirstPacketType.PROXY_V2));
+        assertNull(ProxyHeaderValidator.validate(header, FirstPacketType.PROXY_V2));
+    }
+
+    private static ProxyHeaderValidator.Reason validateV1(String line) {
+        return ProxyHeaderValidator.validate(v1(line), FirstPacketType.PROXY_V1);
+    }
+
+    private static ProxyHeaderValidator.Reason validateV2(ByteBuf header) {
+        return ProxyHeaderValidator.validate(header, FirstPacketType.PROXY_V2);
+    }
+
+    private static ByteBuf v1(String line) {
+        return Unpooled.wrappedBuffer(ascii(line));
+    }
+
+    private static ByteBuf v2(int versionCommand, int familyProtocol, int length) {
+        return Unpooled.buffer().writeBytes(ProxyProtocol.V2_SIG)
+            .writeByte(versionCommand).writeByte(familyProtocol).writeShort(length);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}